@@ -0,0 +1,137 @@
+package com.webengage.android.pushlayouts;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v4.text.HtmlCompat;
+import android.text.Spanned;
+import android.text.style.CharacterStyle;
+import android.text.style.ForegroundColorSpan;
+import android.text.style.StyleSpan;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs a fixed corpus of campaign copy through {@link HtmlSpans} and {@link HtmlCompat}, checks that both give the same
+ * text and spans, and compares their parse times.
+ */
+@RunWith(AndroidJUnit4.class)
+public class HtmlSpansBenchmark {
+    private static final String TAG = HtmlSpansBenchmark.class.getSimpleName();
+
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int MEASURED_ROUNDS = 200;
+
+    // Copy handled by the single pass parser
+    private static final String[] CORPUS = {
+            "Flat 50% off on all orders",
+            "<b>Flash sale</b> ends at <i>midnight</i>",
+            "<b><i>Last chance</i></b> to <u>save big</u>",
+            "<font color=\"#FF0000\">Red</font> and <font color='#00aa00'>green</font> deals",
+            "<font color=#1A73E8><b>Your order</b> is on the way</font>",
+            "Line one<br>Line two<br/>Line three<br />",
+            "Tom &amp; Jerry &lt;3 &quot;cheese&quot; &apos;n&#39; crackers&nbsp;!",
+            "  Spaces   and\nline   breaks  collapse  ",
+            "Tabs\tstay\tas\tthey are",
+            "<B>Upper case</B> <U>tags</U>",
+            "<b></b>Empty tags <i></i>add no spans",
+    };
+
+    // Copy left to HtmlCompat, as the framework parser reads it differently between releases
+    private static final String[] FALLBACK_CORPUS = {
+            "<font color=\"green\">Named color</font>",
+            "<font color=\"gray\">Named color</font>",
+            "<font color=\"#f00\">Short hex</font>",
+            "<font color=\"#80FF0000\">Hex with alpha</font>",
+            "<a href=\"https://example.com\">Link</a>",
+            "<b>Unclosed",
+    };
+
+    @Test
+    public void spansMatchHtmlCompat() {
+        for (String html : CORPUS) {
+            Spanned spanned = HtmlSpans.parse(html);
+            assertNotNull(html, spanned);
+            Spanned expected = HtmlCompat.fromHtml(html, HtmlCompat.FROM_HTML_MODE_COMPACT);
+            assertEquals(html, expected.toString(), spanned.toString());
+            assertEquals(html, describeSpans(expected), describeSpans(spanned));
+        }
+    }
+
+    @Test
+    public void unsupportedMarkupFallsBack() {
+        for (String html : FALLBACK_CORPUS) {
+            assertNull(html, HtmlSpans.parse(html));
+            Spanned expected = HtmlCompat.fromHtml(html, HtmlCompat.FROM_HTML_MODE_COMPACT);
+            HtmlSpans.clear();
+            assertEquals(html, describeSpans(expected), describeSpans(HtmlSpans.fromHtml(html)));
+        }
+    }
+
+    @Test
+    public void parseIsFasterThanHtmlCompat() {
+        long[] htmlSpansNs = new long[MEASURED_ROUNDS];
+        long[] htmlCompatNs = new long[MEASURED_ROUNDS];
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (String html : CORPUS) {
+                HtmlSpans.parse(html);
+            }
+            long parseNs = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (String html : CORPUS) {
+                HtmlCompat.fromHtml(html, HtmlCompat.FROM_HTML_MODE_COMPACT);
+            }
+            long compatNs = System.nanoTime() - start;
+
+            if (round >= WARMUP_ROUNDS) {
+                htmlSpansNs[round - WARMUP_ROUNDS] = parseNs;
+                htmlCompatNs[round - WARMUP_ROUNDS] = compatNs;
+            }
+        }
+
+        long htmlSpansMedianUs = median(htmlSpansNs) / 1000;
+        long htmlCompatMedianUs = median(htmlCompatNs) / 1000;
+        Log.i(TAG, "Median for " + CORPUS.length + " sources: HtmlSpans " + htmlSpansMedianUs + " us, HtmlCompat "
+                + htmlCompatMedianUs + " us, over " + MEASURED_ROUNDS + " rounds");
+        assertTrue("HtmlSpans took " + htmlSpansMedianUs + " us, HtmlCompat took " + htmlCompatMedianUs + " us",
+                htmlSpansMedianUs <= htmlCompatMedianUs);
+    }
+
+    /**
+     * @return sorted description of the type, style, range and color of each character span, which ignores the order
+     * the spans were set in
+     */
+    private static List<String> describeSpans(Spanned spanned) {
+        List<String> spans = new ArrayList<>();
+        for (CharacterStyle span : spanned.getSpans(0, spanned.length(), CharacterStyle.class)) {
+            String description = span.getClass().getSimpleName();
+            if (span instanceof StyleSpan) {
+                description += " style=" + ((StyleSpan) span).getStyle();
+            } else if (span instanceof ForegroundColorSpan) {
+                description += " color=" + Integer.toHexString(((ForegroundColorSpan) span).getForegroundColor());
+            }
+            spans.add(description + " [" + spanned.getSpanStart(span) + ", " + spanned.getSpanEnd(span) + ") flags="
+                    + spanned.getSpanFlags(span));
+        }
+        Collections.sort(spans);
+        return spans;
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
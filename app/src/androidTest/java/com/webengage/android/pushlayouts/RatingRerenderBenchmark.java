@@ -0,0 +1,160 @@
+package com.webengage.android.pushlayouts;
+
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.os.Parcel;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.view.View;
+import android.widget.RemoteViews;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the work of a star tap on a rating notification before and after the expanded view was kept as a template.
+ * Before, every tap built the collapsed and expanded views again, looked up each star view by name, and created the
+ * delete, content and per star pending intents. Now a tap copies the template and only sets the stars and the submit
+ * action. The image is already decoded in both, as it comes from the memory cache on a tap.
+ *
+ * Both paths create their pending intents with {@link PendingIntent#getBroadcast}, which does the same system call as
+ * the intents of the SDK.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RatingRerenderBenchmark {
+    private static final String TAG = RatingRerenderBenchmark.class.getSimpleName();
+
+    private static final int WARMUP_TAPS = 20;
+    private static final int MEASURED_TAPS = 200;
+
+    private Context context;
+    private Bitmap image;
+    private RemoteViews template;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getTargetContext();
+        int width = context.getResources().getDisplayMetrics().widthPixels;
+        int height = context.getResources().getDimensionPixelSize(R.dimen.rating_image_height);
+        image = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        template = buildTemplate();
+    }
+
+    @Test
+    public void templateCopyIsFasterThanRebuild() {
+        long[] rebuild = new long[MEASURED_TAPS];
+        long[] copy = new long[MEASURED_TAPS];
+        for (int i = 0; i < WARMUP_TAPS + MEASURED_TAPS; i++) {
+            int rating = i % MyPushRenderer.RATE_IDS.length + 1;
+
+            long start = System.nanoTime();
+            RemoteViews rebuilt = rebuildTap(rating);
+            long rebuildNs = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            RemoteViews copied = copyTap(rating);
+            long copyNs = System.nanoTime() - start;
+
+            if (i >= WARMUP_TAPS) {
+                rebuild[i - WARMUP_TAPS] = rebuildNs;
+                copy[i - WARMUP_TAPS] = copyNs;
+            }
+            assertTrue(parcelSize(copied) <= parcelSize(rebuilt));
+        }
+
+        long rebuildMedianUs = median(rebuild) / 1000;
+        long copyMedianUs = median(copy) / 1000;
+        Log.i(TAG, "Per tap median: rebuild " + rebuildMedianUs + " us, template copy " + copyMedianUs + " us, over "
+                + MEASURED_TAPS + " taps");
+        assertTrue("Template copy took " + copyMedianUs + " us, rebuild took " + rebuildMedianUs + " us",
+                copyMedianUs <= rebuildMedianUs);
+    }
+
+    /**
+     * A tap as it was handled before the template, building everything again.
+     */
+    private RemoteViews rebuildTap(int rating) {
+        RemoteViews collapsedView = new RemoteViews(context.getPackageName(), R.layout.push_collapsed);
+        collapsedView.setTextViewText(R.id.notificationTitle, "Rate us");
+        collapsedView.setTextViewText(R.id.notificationText, "How was your order?");
+
+        RemoteViews npsView = createRatingView();
+        for (int i = 1; i <= MyPushRenderer.RATE_IDS.length; i++) {
+            PendingIntent rateClickPendingIntent = getPendingIntent("rate_click_" + i, i);
+            int id = context.getResources().getIdentifier("rate_" + i, "id", context.getPackageName());
+            npsView.setOnClickPendingIntent(id, rateClickPendingIntent);
+            npsView.setImageViewResource(id, i <= rating ? R.drawable.star_selected : R.drawable.star_unselected);
+        }
+        npsView.setOnClickPendingIntent(R.id.rate_submit, getPendingIntent("rate_submit", 0));
+
+        getPendingIntent("delete", 0);
+        getPendingIntent("content", 0);
+        return npsView;
+    }
+
+    /**
+     * A tap as it is handled now, the collapsed view and the delete and content intents are kept in the render state.
+     */
+    private RemoteViews copyTap(int rating) {
+        RemoteViews npsView = MyPushRenderer.copyRemoteViews(template);
+        for (int i = 1; i <= MyPushRenderer.RATE_IDS.length; i++) {
+            npsView.setImageViewResource(MyPushRenderer.RATE_IDS[i - 1], i <= rating ? R.drawable.star_selected : R.drawable.star_unselected);
+        }
+        npsView.setOnClickPendingIntent(R.id.rate_submit, getPendingIntent("rate_submit", 0));
+        return npsView;
+    }
+
+    /**
+     * Expanded rating view with no star selected, which the renderer keeps as the template.
+     */
+    private RemoteViews buildTemplate() {
+        RemoteViews npsView = createRatingView();
+        for (int i = 1; i <= MyPushRenderer.RATE_IDS.length; i++) {
+            npsView.setOnClickPendingIntent(MyPushRenderer.RATE_IDS[i - 1], getPendingIntent("rate_click_" + i, i));
+        }
+        return npsView;
+    }
+
+    private RemoteViews createRatingView() {
+        RemoteViews npsView = new RemoteViews(context.getPackageName(), R.layout.push_rating);
+        npsView.setTextViewText(R.id.notificationTitle, "Rate us");
+        npsView.setTextViewText(R.id.notificationText, "How was your order?");
+        npsView.setViewVisibility(R.id.rate_frame, View.VISIBLE);
+        npsView.setViewVisibility(R.id.rate_image, View.VISIBLE);
+        npsView.setImageViewBitmap(R.id.rate_image, image);
+        npsView.setViewVisibility(R.id.rate_title, View.VISIBLE);
+        npsView.setTextViewText(R.id.rate_title, "Your order");
+        npsView.setViewVisibility(R.id.rate_message, View.VISIBLE);
+        npsView.setTextViewText(R.id.rate_message, "Tap a star to rate it");
+        return npsView;
+    }
+
+    private PendingIntent getPendingIntent(String action, int requestCode) {
+        Intent intent = new Intent(action).setPackage(context.getPackageName());
+        return PendingIntent.getBroadcast(context, requestCode, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    private static int parcelSize(RemoteViews remoteViews) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            remoteViews.writeToParcel(parcel, 0);
+            return parcel.dataSize();
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
@@ -0,0 +1,65 @@
+package com.webengage.android.pushlayouts;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Record of the images fetched for a notification, keyed by its variation id. Rerenders use it to load only the images
+ * which are missing or failed, instead of going to the network for every image on every tap.
+ */
+public class AssetManifest {
+    private static final int MAX_MANIFESTS = 32;
+
+    private static final Map<String, AssetManifest> MANIFESTS = new LinkedHashMap<String, AssetManifest>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, AssetManifest> eldest) {
+            return size() > MAX_MANIFESTS;
+        }
+    };
+
+    // true if the image was loaded, false if loading it failed
+    private final Map<String, Boolean> assets = new ConcurrentHashMap<>();
+
+    public static AssetManifest forVariation(String variationId) {
+        synchronized (MANIFESTS) {
+            AssetManifest manifest = MANIFESTS.get(variationId);
+            if (manifest == null) {
+                manifest = new AssetManifest();
+                MANIFESTS.put(variationId, manifest);
+            }
+            return manifest;
+        }
+    }
+
+    public static void remove(String variationId) {
+        synchronized (MANIFESTS) {
+            MANIFESTS.remove(variationId);
+        }
+    }
+
+    public void record(String url, boolean loaded) {
+        if (url != null) {
+            assets.put(url, loaded);
+        }
+    }
+
+    public boolean isLoaded(String url) {
+        return url != null && Boolean.TRUE.equals(assets.get(url));
+    }
+
+    /**
+     * @return urls which were never fetched for this notification or failed to load
+     */
+    public List<String> getMissing(List<String> urls) {
+        List<String> missing = new ArrayList<>();
+        for (String url : urls) {
+            if (!isLoaded(url)) {
+                missing.add(url);
+            }
+        }
+        return missing;
+    }
+}
@@ -0,0 +1,93 @@
+package com.webengage.android.pushlayouts;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.util.LruCache;
+
+/**
+ * Process wide in-memory cache of decoded images, keyed by image url and target size.
+ * Cache size is bounded by bitmap bytes and least recently used bitmaps are evicted first.
+ */
+public class BitmapCache {
+    private static final int DEFAULT_MAX_BYTES = (int) Math.min(Runtime.getRuntime().maxMemory() / 8, Integer.MAX_VALUE);
+
+    private static final BitmapCache INSTANCE = new BitmapCache(DEFAULT_MAX_BYTES);
+
+    private final LruCache<String, Bitmap> cache;
+
+    private BitmapCache(int maxBytes) {
+        cache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+    }
+
+    public static BitmapCache getInstance() {
+        return INSTANCE;
+    }
+
+    public static String key(String url, int width, int height) {
+        // Suffix marks images cropped to the target size, so uncropped pixels kept on disk by older versions are not used
+        return url + "@" + width + "x" + height + "c";
+    }
+
+    public Bitmap get(String key) {
+        return cache.get(key);
+    }
+
+    public void put(String key, Bitmap bitmap) {
+        if (key != null && bitmap != null) {
+            cache.put(key, bitmap);
+        }
+    }
+
+    public void remove(String key) {
+        cache.remove(key);
+    }
+
+    public void evictAll() {
+        cache.evictAll();
+    }
+
+    /**
+     * Evicts least recently used bitmaps until the cache holds at most the given number of bytes.
+     */
+    public void trimToSize(int maxBytes) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            cache.trimToSize(maxBytes);
+        } else if (maxBytes < cache.size()) {
+            cache.evictAll();
+        }
+    }
+
+    public int hitCount() {
+        return cache.hitCount();
+    }
+
+    public int missCount() {
+        return cache.missCount();
+    }
+
+    public int evictionCount() {
+        return cache.evictionCount();
+    }
+
+    /**
+     * @return total bytes of the bitmaps currently in cache
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    public int maxSize() {
+        return cache.maxSize();
+    }
+
+    @Override
+    public String toString() {
+        return "BitmapCache{size=" + size() + ", maxSize=" + maxSize() + ", hits=" + hitCount()
+                + ", misses=" + missCount() + ", evictions=" + evictionCount() + "}";
+    }
+}
@@ -0,0 +1,179 @@
+package com.webengage.android.pushlayouts;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Process wide pool of mutable bitmaps which are no longer used, so that decodes can reuse their memory through
+ * {@link android.graphics.BitmapFactory.Options#inBitmap} instead of allocating a new bitmap each time.
+ * Bitmaps are bucketed by allocation size and the pool is bounded by bytes, dropping the oldest bitmaps first.
+ *
+ * Only bitmaps private to a decode, like the intermediate bitmaps of scaling and cropping, may be put in the pool.
+ * Bitmaps handed out by {@link BitmapCache} can stay referenced for as long as a notification is shown, by render
+ * state, queued posts or the views themselves, so they are never pooled. Dropped bitmaps are left to the garbage
+ * collector and never recycled.
+ *
+ * Reusing a bitmap of a different size needs {@link Bitmap#reconfigure(int, int, Bitmap.Config)}, so the pool is only
+ * used from KitKat onwards.
+ */
+public class BitmapPool {
+    private static final String TAG = BitmapPool.class.getSimpleName();
+
+    private static final int DEFAULT_MAX_BYTES = (int) Math.min(Runtime.getRuntime().maxMemory() / 16, Integer.MAX_VALUE);
+
+    // A pooled bitmap is not handed out for a request which needs less than a quarter of its memory
+    private static final int MAX_SIZE_MULTIPLE = 4;
+
+    private static final BitmapPool INSTANCE = new BitmapPool(DEFAULT_MAX_BYTES);
+
+    private final TreeMap<Integer, ArrayDeque<Bitmap>> buckets = new TreeMap<>();
+    // Least recently pooled first
+    private final LinkedList<Bitmap> order = new LinkedList<>();
+    private final int maxBytes;
+    private int size;
+    private int hitCount;
+    private int missCount;
+
+    private BitmapPool(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public static BitmapPool getInstance() {
+        return INSTANCE;
+    }
+
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+    }
+
+    /**
+     * @return pooled bitmap whose memory can hold an image of the given size and config, or null if there is none.
+     * The returned bitmap still has its old dimensions and content.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        if (!isSupported() || width <= 0 || height <= 0) {
+            return null;
+        }
+        long required = (long) width * height * bytesPerPixel(config);
+        Map.Entry<Integer, ArrayDeque<Bitmap>> bucket = buckets.ceilingEntry((int) Math.min(required, Integer.MAX_VALUE));
+        if (bucket != null && bucket.getKey() <= required * MAX_SIZE_MULTIPLE) {
+            Bitmap bitmap = bucket.getValue().peek();
+            removeEntry(bitmap, bucket.getKey());
+            hitCount++;
+            return bitmap;
+        }
+        missCount++;
+        return null;
+    }
+
+    /**
+     * @return pooled bitmap reconfigured to the given size and config, or null if there is none
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    public Bitmap getReconfigured(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = get(width, height, config);
+        if (bitmap != null) {
+            try {
+                bitmap.reconfigure(width, height, config);
+                bitmap.eraseColor(0);
+            } catch (IllegalArgumentException e) {
+                Log.e(TAG, "Could not reconfigure pooled bitmap", e);
+                return null;
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * Adds a bitmap to the pool. Its memory may be reused by any decode, so the bitmap must be private to the caller
+     * and must not be used afterwards. Never put a bitmap which was handed out by {@link BitmapCache}.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    public void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !isSupported() || !bitmap.isMutable() || bitmap.getConfig() == null
+                || bitmap.getAllocationByteCount() > maxBytes / 2) {
+            return;
+        }
+        int byteCount = bitmap.getAllocationByteCount();
+
+        synchronized (this) {
+            ArrayDeque<Bitmap> bucket = buckets.get(byteCount);
+            if (bucket == null) {
+                bucket = new ArrayDeque<>();
+                buckets.put(byteCount, bucket);
+            }
+            bucket.offer(bitmap);
+            order.addLast(bitmap);
+            size += byteCount;
+            trimToSize(maxBytes);
+        }
+    }
+
+    /**
+     * Drops the oldest pooled bitmaps until the pool is within the given size.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    public synchronized void trimToSize(int maxSize) {
+        while (size > maxSize && !order.isEmpty()) {
+            Bitmap bitmap = order.getFirst();
+            removeEntry(bitmap, bitmap.getAllocationByteCount());
+        }
+    }
+
+    private void removeEntry(Bitmap bitmap, int byteCount) {
+        ArrayDeque<Bitmap> bucket = buckets.get(byteCount);
+        if (bucket != null) {
+            bucket.remove(bitmap);
+            if (bucket.isEmpty()) {
+                buckets.remove(byteCount);
+            }
+        }
+        order.remove(bitmap);
+        size -= byteCount;
+    }
+
+    public void evictAll() {
+        trimToSize(0);
+    }
+
+    /**
+     * @return total bytes of the bitmaps currently in pool
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    public int maxSize() {
+        return maxBytes;
+    }
+
+    public synchronized int hitCount() {
+        return hitCount;
+    }
+
+    public synchronized int missCount() {
+        return missCount;
+    }
+
+    private static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        } else if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        return 4;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BitmapPool{size=" + size + ", maxSize=" + maxBytes + ", hits=" + hitCount + ", misses=" + missCount + "}";
+    }
+}
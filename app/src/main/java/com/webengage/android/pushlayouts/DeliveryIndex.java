@@ -0,0 +1,276 @@
+package com.webengage.android.pushlayouts;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of recently rendered pushes, which is used to skip pushes delivered again by FCM or SDK retries, and to give
+ * every notification its own id. Entries are kept in memory and persisted to shared preferences, so that redeliveries
+ * after a process restart are recognised too. Entries expire after a fixed time.
+ *
+ * A campaign can send the same variation more than once, so rendered pushes are keyed by variation id and FCM message
+ * id. A redelivery keeps the message id of the original message, a new send gets a new one. Message ids are noted by
+ * {@link MyFirebaseMessagingService} as messages arrive, see {@link #onMessageReceived(String, String)}. Pushes which
+ * did not come through it are keyed by variation id alone.
+ *
+ * Notification ids default to the hash code of the variation id, which is what the SDK uses when it cancels a
+ * notification. Only a variation whose hash collides with another live notification gets a different id.
+ */
+public class DeliveryIndex {
+    private static final String TAG = DeliveryIndex.class.getSimpleName();
+
+    private static final String PREFS_NAME = "delivery_index";
+    private static final String ID_PREFIX = "id:";
+    private static final String RENDERED_PREFIX = "rendered:";
+    private static final long DEFAULT_TIME_TO_LIVE = 24 * 60 * 60 * 1000;
+    private static final int MAX_ENTRIES = 256;
+    // Messages of a variation which arrived but are not rendered yet
+    private static final int MAX_PENDING_MESSAGES = 8;
+
+    private static volatile DeliveryIndex instance;
+
+    private final SharedPreferences preferences;
+    private final long timeToLive;
+
+    // Notification ids by variation id, ordered by last use so the least recently used entries are dropped first
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Integer, String> variationsById = new HashMap<>();
+    // Render time by delivery key, ordered by render time. Unlike the ids, a render does not live longer when the
+    // notification is updated
+    private final LinkedHashMap<String, Long> rendered = new LinkedHashMap<>();
+    // Message ids by variation id in order of arrival, kept only in memory as a message is rendered right after it
+    // arrives
+    private final Map<String, ArrayDeque<String>> pendingMessages = new LinkedHashMap<String, ArrayDeque<String>>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ArrayDeque<String>> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private static class Entry {
+        final int notificationId;
+        long usedAt;
+
+        Entry(int notificationId, long usedAt) {
+            this.notificationId = notificationId;
+            this.usedAt = usedAt;
+        }
+
+        String serialize() {
+            return notificationId + "," + usedAt;
+        }
+
+        static Entry parse(String value) {
+            String[] parts = value.split(",");
+            if (parts.length != 2) {
+                return null;
+            }
+            try {
+                return new Entry(Integer.parseInt(parts[0]), Long.parseLong(parts[1]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    private DeliveryIndex(Context context, long timeToLive) {
+        this.preferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        this.timeToLive = timeToLive;
+        load();
+    }
+
+    public static DeliveryIndex getInstance(Context context) {
+        if (instance == null) {
+            synchronized (DeliveryIndex.class) {
+                if (instance == null) {
+                    instance = new DeliveryIndex(context.getApplicationContext(), DEFAULT_TIME_TO_LIVE);
+                }
+            }
+        }
+        return instance;
+    }
+
+    private synchronized void load() {
+        long now = System.currentTimeMillis();
+        SharedPreferences.Editor editor = preferences.edit();
+        List<Map.Entry<String, Long>> loadedRenders = new ArrayList<>();
+        for (Map.Entry<String, ?> pref : preferences.getAll().entrySet()) {
+            String key = pref.getKey();
+            Object value = pref.getValue();
+            if (key.startsWith(ID_PREFIX) && value instanceof String) {
+                Entry entry = Entry.parse((String) value);
+                if (entry != null && !isExpired(entry.usedAt, now)) {
+                    String variationId = key.substring(ID_PREFIX.length());
+                    entries.put(variationId, entry);
+                    variationsById.put(entry.notificationId, variationId);
+                    continue;
+                }
+            } else if (key.startsWith(RENDERED_PREFIX) && value instanceof Long && !isExpired((Long) value, now)) {
+                loadedRenders.add(new AbstractMap.SimpleEntry<>(key.substring(RENDERED_PREFIX.length()), (Long) value));
+                continue;
+            }
+            // Expired, or written by an older version which kept ids and renders in one entry per variation
+            editor.remove(key);
+        }
+        editor.apply();
+
+        // Preferences come back in no particular order, restore the render order so the oldest are dropped first
+        Collections.sort(loadedRenders, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(Map.Entry<String, Long> first, Map.Entry<String, Long> second) {
+                return first.getValue().compareTo(second.getValue());
+            }
+        });
+        for (Map.Entry<String, Long> render : loadedRenders) {
+            rendered.put(render.getKey(), render.getValue());
+        }
+        Log.d(TAG, "Loaded " + rendered.size() + " rendered pushes and " + entries.size() + " notification ids");
+    }
+
+    /**
+     * Notes a message as it arrives, before it is handed to the SDK, so that its render can be told apart from the
+     * renders of other sends of the same variation.
+     */
+    public synchronized void onMessageReceived(String variationId, String messageId) {
+        if (variationId == null || messageId == null) {
+            return;
+        }
+        ArrayDeque<String> messageIds = pendingMessages.get(variationId);
+        if (messageIds == null) {
+            messageIds = new ArrayDeque<>();
+            pendingMessages.put(variationId, messageIds);
+        }
+        if (messageIds.size() >= MAX_PENDING_MESSAGES) {
+            messageIds.removeFirst();
+        }
+        messageIds.addLast(messageId);
+    }
+
+    /**
+     * Claims the render of the oldest message of the variation which has not been rendered yet. Checking and claiming
+     * is a single step, so that two deliveries of the same message rendering at the same time cannot both go ahead.
+     *
+     * @return key of the delivery, to be passed to {@link #release(String)} if the render fails, or null if the
+     * message was already rendered within the time to live
+     */
+    public synchronized String claim(String variationId) {
+        long now = System.currentTimeMillis();
+        String deliveryKey = variationId;
+        ArrayDeque<String> messageIds = pendingMessages.get(variationId);
+        if (messageIds != null) {
+            deliveryKey = variationId + "#" + messageIds.removeFirst();
+            if (messageIds.isEmpty()) {
+                pendingMessages.remove(variationId);
+            }
+        }
+
+        Long renderedAt = rendered.get(deliveryKey);
+        if (renderedAt != null && !isExpired(renderedAt, now)) {
+            return null;
+        }
+        rendered.remove(deliveryKey);
+        rendered.put(deliveryKey, now);
+        preferences.edit().putLong(RENDERED_PREFIX + deliveryKey, now).apply();
+        trimRendered();
+        return deliveryKey;
+    }
+
+    /**
+     * Gives up a claim after the render failed, so that a redelivery of the message is rendered.
+     */
+    public synchronized void release(String deliveryKey) {
+        if (rendered.remove(deliveryKey) != null) {
+            preferences.edit().remove(RENDERED_PREFIX + deliveryKey).apply();
+        }
+    }
+
+    /**
+     * @return id of the notification for the push, which stays the same across its renders and is not used by any other
+     * push in the index
+     */
+    public synchronized int getNotificationId(String variationId) {
+        return getEntry(variationId).notificationId;
+    }
+
+    private Entry getEntry(String variationId) {
+        long now = System.currentTimeMillis();
+        Entry entry = entries.get(variationId);
+        if (entry != null && isExpired(entry.usedAt, now)) {
+            removeEntry(variationId);
+            entry = null;
+        }
+        if (entry == null) {
+            entry = new Entry(allocateId(variationId), now);
+            entries.put(variationId, entry);
+            variationsById.put(entry.notificationId, variationId);
+            persist(variationId, entry);
+            trimToSize();
+            return entry;
+        }
+        // Only kept in memory, as writing the preferences on every update of a notification costs more than it saves.
+        // After a restart the entry expires a day after it was created, and the variation gets the same hash code id
+        // again unless another live notification took it meanwhile
+        entry.usedAt = now;
+        return entry;
+    }
+
+    private int allocateId(String variationId) {
+        int id = variationId.hashCode();
+        while (variationsById.containsKey(id)) {
+            Log.w(TAG, "Notification id " + id + " already in use, probing next id for: " + variationId);
+            id++;
+        }
+        return id;
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        SharedPreferences.Editor editor = preferences.edit();
+        while (entries.size() > MAX_ENTRIES && iterator.hasNext()) {
+            Map.Entry<String, Entry> eldest = iterator.next();
+            iterator.remove();
+            variationsById.remove(eldest.getValue().notificationId);
+            editor.remove(ID_PREFIX + eldest.getKey());
+        }
+        editor.apply();
+    }
+
+    private void trimRendered() {
+        Iterator<Map.Entry<String, Long>> iterator = rendered.entrySet().iterator();
+        SharedPreferences.Editor editor = preferences.edit();
+        while (rendered.size() > MAX_ENTRIES && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            iterator.remove();
+            editor.remove(RENDERED_PREFIX + eldest.getKey());
+        }
+        editor.apply();
+    }
+
+    private void removeEntry(String variationId) {
+        Entry entry = entries.remove(variationId);
+        if (entry != null) {
+            variationsById.remove(entry.notificationId);
+            preferences.edit().remove(ID_PREFIX + variationId).apply();
+        }
+    }
+
+    private void persist(String variationId, Entry entry) {
+        preferences.edit().putString(ID_PREFIX + variationId, entry.serialize()).apply();
+    }
+
+    private boolean isExpired(long since, long now) {
+        return now - since > timeToLive;
+    }
+}
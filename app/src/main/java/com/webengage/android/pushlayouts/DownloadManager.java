@@ -1,153 +1,417 @@
 package com.webengage.android.pushlayouts;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.net.http.HttpResponseCache;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Build;
+import android.os.SystemClock;
+import android.os.Trace;
 import android.util.Log;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FilterInputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.CacheResponse;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
-import java.net.URI;
-import java.net.URISyntaxException;
 import java.net.URL;
-import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class DownloadManager {
     private static final String TAG = DownloadManager.class.getSimpleName();
     private static final long ONE_DAY = 24 * 60 * 60 * 1000;
-    
+
+    private static final String CACHE_SUFFIX = "#cache";
+    private static final String NETWORK_SUFFIX = "#network";
+
+    // Concurrent requests for the same image share one transfer and one decode
+    private static final SingleFlight<byte[]> DATA_FLIGHTS = new SingleFlight<>();
+    private static final SingleFlight<Bitmap> DECODE_FLIGHTS = new SingleFlight<>();
+    private static final SingleFlight<Boolean> WARM_FLIGHTS = new SingleFlight<>();
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MS = 5 * 1000;
+    public static final int DEFAULT_READ_TIMEOUT_MS = 10 * 1000;
+
+    private static volatile int connectTimeoutMs = DEFAULT_CONNECT_TIMEOUT_MS;
+    private static volatile int readTimeoutMs = DEFAULT_READ_TIMEOUT_MS;
+
+    private static final long CACHES_INIT_TIMEOUT_MS = 3 * 1000;
+    private static final AtomicBoolean CACHES_INIT_STARTED = new AtomicBoolean(false);
+    private static final CountDownLatch CACHES_READY = new CountDownLatch(1);
+
+    // Bitmaps handed out by the memory cache are never recycled or reused, so their pixels can be read on this thread
+    private static final ExecutorService PIXEL_STORE_WRITER = createPixelStoreWriter();
+
     /**
-     * This input stream extension is required to decode png images to bitmap
+     * Installs the image caches on a background thread, so that the disk I/O does not block application startup.
+     * Image requests made before the caches are ready wait for them.
      */
-    private static class FlushedInputStream extends FilterInputStream {
-        FlushedInputStream(InputStream inputStream) {
-            super(inputStream);
-        }
-
-        @Override
-        public long skip(long n) throws IOException {
-            long totalBytesSkipped = 0L;
-            while (totalBytesSkipped < n) {
-                long bytesSkipped = in.skip(n - totalBytesSkipped);
-                if (bytesSkipped == 0L) {
-                    int b = read();
-                    if (b < 0) {
-                        break; // we reached EOF
-                    } else {
-                        bytesSkipped = 1; // we read one byte
-                    }
+    public static void initCachesAsync(Context context) {
+        if (!CACHES_INIT_STARTED.compareAndSet(false, true)) {
+            return;
+        }
+        final Context appContext = context.getApplicationContext();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                beginTraceSection("DownloadManager.initCaches");
+                long start = SystemClock.elapsedRealtime();
+                try {
+                    createImageCache(appContext);
+                    createPixelStore(appContext);
+                    deleteLegacyHttpCache(appContext);
+                } finally {
+                    CACHES_READY.countDown();
+                    endTraceSection();
                 }
-                totalBytesSkipped += bytesSkipped;
+                Log.d(TAG, "Image caches ready in " + (SystemClock.elapsedRealtime() - start) + " ms");
             }
-            return totalBytesSkipped;
+        }, "image-cache-init");
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        thread.start();
+    }
+
+    /**
+     * Writes the decoded pixels to the store on a background thread. The write is several MB, which the render waiting
+     * for the image does not need, as it already has the bitmap.
+     */
+    private static void storePixelsAsync(final PixelDiskStore pixelStore, final String cacheKey, final Bitmap bitmap) {
+        PIXEL_STORE_WRITER.execute(new Runnable() {
+            @Override
+            public void run() {
+                pixelStore.put(cacheKey, bitmap);
+            }
+        });
+    }
+
+    private static void awaitCaches() {
+        if (!CACHES_INIT_STARTED.get() || CACHES_READY.getCount() == 0) {
+            return;
+        }
+        try {
+            if (!CACHES_READY.await(CACHES_INIT_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, "Image caches not ready after " + CACHES_INIT_TIMEOUT_MS + " ms, continuing without them");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
-    public static void createHttpCache(Context context) {
+    private static ExecutorService createPixelStoreWriter() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "pixel-store-writer");
+                        thread.setPriority(Thread.NORM_PRIORITY - 1);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    static void beginTraceSection(String sectionName) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection(sectionName);
+        }
+    }
+
+    static void endTraceSection() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * Deletes the http cache which was used for images before the image cache. Nothing installs it any more, so the
+     * directory is only left over from an older version of the app.
+     */
+    static void deleteLegacyHttpCache(Context context) {
+        File httpCacheDir = new File(context.getCacheDir(), "http");
+        if (httpCacheDir.exists()) {
+            deleteRecursively(httpCacheDir);
+            Log.d(TAG, "Deleted legacy http cache: " + httpCacheDir);
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        if (!file.delete()) {
+            Log.w(TAG, "Could not delete: " + file);
+        }
+    }
+
+    public static void createPixelStore(Context context) {
+        File pixelStoreDir = new File(context.getCacheDir(), "pixels");
+        long pixelStoreSize = 20 * 1024 * 1024;  // 20 MiB
+        PixelDiskStore.install(pixelStoreDir, pixelStoreSize).evictInactive(context);
+    }
+
+    public static void createImageCache(Context context) {
+        long imageCacheSize = 50 * 1024 * 1024;  // 50 MiB
+        createImageCache(context, imageCacheSize, 3 * ONE_DAY);
+    }
+
+    /**
+     * Installs the disk cache used for downloaded images.
+     *
+     * @param maxSize    capacity of the cache in bytes
+     * @param timeToLive time in milliseconds after which a cached image expires
+     */
+    public static void createImageCache(Context context, long maxSize, long timeToLive) {
         try {
-            File httpCacheDir = new File(context.getCacheDir(), "http");
-            long httpCacheSize = 10 * 1024 * 1024;  // 10 MiB
-            HttpResponseCache.install(httpCacheDir, httpCacheSize);
+            File imageCacheDir = new File(context.getCacheDir(), "images");
+            ImageDiskCache.install(imageCacheDir, maxSize, timeToLive);
         } catch (IOException e) {
-            Log.e(TAG, "HTTP response cache installation failed", e);
+            Log.e(TAG, "Image cache installation failed", e);
+        }
+    }
+
+    /**
+     * Gives memory back to the system according to the trim level. Decoded images can always be rebuilt from the disk
+     * caches, so they are dropped first, and the more urgent the level the more of them are dropped.
+     *
+     * @param level level passed to {@link android.content.ComponentCallbacks2#onTrimMemory(int)}
+     */
+    public static void onTrimMemory(int level) {
+        BitmapCache bitmapCache = BitmapCache.getInstance();
+        BitmapPool bitmapPool = BitmapPool.getInstance();
+
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            // Process is among the next to be killed, keep nothing
+            bitmapCache.evictAll();
+            bitmapPool.evictAll();
+            PlaceholderProvider.clear();
+            HtmlSpans.clear();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            bitmapCache.trimToSize(bitmapCache.maxSize() / 2);
+            bitmapPool.evictAll();
+            PlaceholderProvider.clear();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            bitmapPool.trimToSize(bitmapPool.maxSize() / 2);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            // Keep the most recent images so a carousel on screen can still be browsed without decoding again
+            bitmapCache.trimToSize(bitmapCache.maxSize() / 4);
+            bitmapPool.evictAll();
+            PlaceholderProvider.clear();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            bitmapCache.trimToSize(bitmapCache.maxSize() / 2);
+            bitmapPool.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            bitmapPool.trimToSize(bitmapPool.maxSize() / 2);
         }
+        Log.d(TAG, "Trimmed memory for level " + level + ": " + bitmapCache + ", " + bitmapPool);
+    }
+
+    public static void onLowMemory() {
+        onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+    }
+
+    public static Bitmap getBitmapFromURL(String src, boolean fromCacheOnly) {
+        return getBitmapFromURL(src, fromCacheOnly, 0, 0);
     }
 
-    public static void cleanHttpCache(Context context, int olderThanDays) {
+    /**
+     * Loads the image and decodes it for the given target size. The image is subsampled while decoding, scaled down so
+     * that it just covers the target size and then cropped to it, which is what a centerCrop ImageView of that size
+     * shows.
+     *
+     * @param reqWidth  target width in pixels, 0 if width is not constrained
+     * @param reqHeight target height in pixels, 0 if height is not constrained
+     */
+    public static Bitmap getBitmapFromURL(String src, boolean fromCacheOnly, int reqWidth, int reqHeight) {
+        return getBitmapFromURL(src, fromCacheOnly, reqWidth, reqHeight, Long.MAX_VALUE);
+    }
+
+    /**
+     * Same as {@link #getBitmapFromURL(String, boolean, int, int)}, but waits for loads of the same image already
+     * running on other threads only until the deadline. Those loads may be stuck on a slow server, and can not be
+     * interrupted while they are.
+     *
+     * @param deadline time in {@link SystemClock#elapsedRealtime()} after which the image is not waited for
+     * @return the image, or null if it could not be loaded or is still loading on another thread at the deadline
+     */
+    public static Bitmap getBitmapFromURL(String src, boolean fromCacheOnly, int reqWidth, int reqHeight, long deadline) {
+        return getBitmapFromURL(src, fromCacheOnly, reqWidth, reqHeight, deadline, null);
+    }
+
+    /**
+     * Same as {@link #getBitmapFromURL(String, boolean, int, int, long)}, with the decode recorded in the trace of the
+     * render the image is for. A decode shared with a load started by another caller is recorded in the trace of that
+     * caller.
+     *
+     * @param trace trace of the render, or null to record the decode under {@link RenderMetrics#STYLE_ANY}
+     */
+    public static Bitmap getBitmapFromURL(final String src, final boolean fromCacheOnly, final int reqWidth, final int reqHeight,
+                                          final long deadline, final RenderMetrics.Trace trace) {
+        Log.d(TAG, "Image requested: " + src + ", target size: " + reqWidth + "x" + reqHeight);
+        final String cacheKey = BitmapCache.key(src, reqWidth, reqHeight);
+        Bitmap cachedBitmap = BitmapCache.getInstance().get(cacheKey);
+        if (cachedBitmap != null) {
+            Log.d(TAG, "Image loaded from memory: " + src + ", " + BitmapCache.getInstance());
+            return cachedBitmap;
+        }
+
+        awaitCaches();
         try {
-            File httpCacheDir = new File(context.getCacheDir(), "http");
-            if (httpCacheDir.exists() && httpCacheDir.isDirectory()) {
-                File[] files = httpCacheDir.listFiles();
-                for (File file : files) {
-                    if (file != null) {
-                        long lastModified = file.lastModified();
-                        if (lastModified > 0) {
-                            Date lastMDate = new Date(lastModified);
-                            Date today = new Date(System.currentTimeMillis());
-                            long diff = today.getTime() - lastMDate.getTime();
-                            long diffDays = diff / ONE_DAY;
-                            if (olderThanDays < diffDays) {
-                                file.delete();
-                            }
+            if (fromCacheOnly) {
+                // A network load of the same image is already running, share its result instead of reading the cache
+                Bitmap networkBitmap = DECODE_FLIGHTS.await(cacheKey + NETWORK_SUFFIX, remaining(deadline));
+                if (networkBitmap != null) {
+                    return networkBitmap;
+                }
+            }
+            return DECODE_FLIGHTS.execute(cacheKey + (fromCacheOnly ? CACHE_SUFFIX : NETWORK_SUFFIX), new Callable<Bitmap>() {
+                @Override
+                public Bitmap call() throws Exception {
+                    Bitmap cachedBitmap = BitmapCache.getInstance().get(cacheKey);
+                    if (cachedBitmap != null) {
+                        return cachedBitmap;
+                    }
+                    PixelDiskStore pixelStore = PixelDiskStore.getInstalled();
+                    if (pixelStore != null) {
+                        Bitmap storedBitmap = pixelStore.get(cacheKey);
+                        if (storedBitmap != null) {
+                            RenderMetrics.increment(RenderMetrics.PIXEL_STORE_HITS);
+                            BitmapCache.getInstance().put(cacheKey, storedBitmap);
+                            return storedBitmap;
                         }
+                        RenderMetrics.increment(RenderMetrics.PIXEL_STORE_MISSES);
+                    }
+
+                    byte[] data = loadImageData(src, fromCacheOnly, deadline);
+                    if (data == null) {
+                        return null;
                     }
+                    Bitmap myBitmap = decodeSampledBitmap(data, reqWidth, reqHeight, trace);
+                    Log.d(TAG, "Downloaded image is null: " + (myBitmap == null));
+                    BitmapCache.getInstance().put(cacheKey, myBitmap);
+                    if (pixelStore != null && myBitmap != null) {
+                        storePixelsAsync(pixelStore, cacheKey, myBitmap);
+                    }
+                    return myBitmap;
                 }
-            }
+            }, remaining(deadline));
+        } catch (TimeoutException e) {
+            Log.w(TAG, "Image still loading on another thread at the deadline: " + src);
+            return null;
+        } catch (IOException e) {
+            Log.e(TAG, "Exception while loading image: " + src, e);
+            return null;
         } catch (Exception e) {
-            Log.e(TAG, "HTTP response cache installation failed", e);
+            Log.e(TAG, "Unexpected exception while downloading bitmap from: " + src, e);
+            return null;
         }
     }
 
-    public static void flushHttpCache() {
-        try {
-            HttpResponseCache cache = HttpResponseCache.getInstalled();
-            if (cache != null) {
-                cache.flush();
+    /**
+     * Loads the encoded image, sharing a single transfer between all the callers requesting the same url at the same
+     * time.
+     */
+    private static byte[] loadImageData(final String src, final boolean fromCacheOnly, long deadline) throws Exception {
+        if (fromCacheOnly) {
+            byte[] networkData = DATA_FLIGHTS.await(src + NETWORK_SUFFIX, remaining(deadline));
+            if (networkData != null) {
+                return networkData;
             }
-            Log.d(TAG, "Flushed Http Cache");
-        } catch (Exception e) {
-            Log.e(TAG, "HTTP response cache installation failed", e);
         }
+
+        // Image is being downloaded into the cache, wait for it and read it from there
+        if (Boolean.TRUE.equals(WARM_FLIGHTS.await(src, remaining(deadline)))) {
+            byte[] cachedData = readImageData(src, true);
+            if (cachedData != null || fromCacheOnly) {
+                return cachedData;
+            }
+        }
+        return DATA_FLIGHTS.execute(src + (fromCacheOnly ? CACHE_SUFFIX : NETWORK_SUFFIX), new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                return readImageData(src, fromCacheOnly);
+            }
+        }, remaining(deadline));
     }
 
-    public static Bitmap getBitmapFromURL(String src, boolean fromCacheOnly) {
-        Log.d(TAG, "Image requested: " + src);
+    private static long remaining(long deadline) {
+        if (deadline == Long.MAX_VALUE) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(deadline - SystemClock.elapsedRealtime(), 0);
+    }
+
+    /**
+     * Sets the connect and read timeouts of image downloads, so that a stalled server can not hang a render.
+     */
+    public static void setTimeouts(int connectTimeout, int readTimeout) {
+        connectTimeoutMs = connectTimeout;
+        readTimeoutMs = readTimeout;
+    }
+
+    private static HttpURLConnection openConnection(String src) throws IOException {
+        URL url = new URL(src);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(connectTimeoutMs);
+        connection.setReadTimeout(readTimeoutMs);
+        // Images are cached in the image cache, no need to store them again in the http cache
+        connection.setUseCaches(false);
+        connection.setDoInput(true);
+        return connection;
+    }
+
+    private static byte[] readImageData(String src, boolean fromCacheOnly) throws IOException {
+        ImageDiskCache imageCache = ImageDiskCache.getInstalled();
         InputStream input = null;
-        FlushedInputStream flushedInputStream = null;
         try {
-            URL url = new URL(src);
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            connection.setUseCaches(true);
-            int maxStale = 60 * 60 * 24 * 3;  // 2 days
-            connection.addRequestProperty("Cache-Control", "max-stale=" + maxStale);
-            connection.setDoInput(true);
-            if (fromCacheOnly) {
-                connection.setRequestProperty("Cache-Control", "only-if-cached");
-                HttpResponseCache responseCache = HttpResponseCache.getInstalled();
-                if (responseCache != null) {
-                    URI uri = new URI(src);
-                    CacheResponse cacheResponse = responseCache.get(uri, "GET", connection.getRequestProperties());
-                    if (cacheResponse != null) {
-                        input = cacheResponse.getBody();
-                    }
-                } else {
-                    Log.e(TAG, "Http cache not created");
-                }
-            } else {
+            File cachedFile = imageCache != null ? imageCache.get(src) : null;
+            if (imageCache != null) {
+                RenderMetrics.increment(cachedFile != null ? RenderMetrics.IMAGE_CACHE_HITS : RenderMetrics.IMAGE_CACHE_MISSES);
+            }
+            if (cachedFile != null) {
+                input = new FileInputStream(cachedFile);
+            } else if (!fromCacheOnly) {
+                HttpURLConnection connection = openConnection(src);
                 connection.connect();
-                Log.d(TAG, "status response code: " + connection.getResponseCode());
+                int responseCode = connection.getResponseCode();
+                Log.d(TAG, "status response code: " + responseCode);
                 input = connection.getInputStream();
+                byte[] data = readFully(input);
+                RenderMetrics.add(RenderMetrics.BYTES_DOWNLOADED, data.length);
+                if (imageCache != null && responseCode == HttpURLConnection.HTTP_OK) {
+                    imageCache.put(src, data);
+                }
+                return data;
             }
 
             if (input == null) {
                 return null;
             }
-
-            flushedInputStream = new FlushedInputStream(input);
-
-            BitmapFactory.Options bmOptions;
-            bmOptions = new BitmapFactory.Options();
-            bmOptions.inSampleSize = 1;
-
-            Bitmap myBitmap = BitmapFactory.decodeStream(flushedInputStream, null, bmOptions);
-            Log.d(TAG, "Downloaded image is null: " + (myBitmap == null));
-            return myBitmap;
-        } catch (IOException e) {
-            Log.e(TAG, "Exception while loading image: " + src, e);
-            return null;
-        } catch (URISyntaxException e) {
-            Log.e(TAG, "Exception while creating URI from: " + src, e);
-            return null;
-        } catch (Exception e) {
-            Log.e(TAG, "Unexpected exception while downloading bitmap from: " + src, e);
+            return readFully(input);
+        } catch (FileNotFoundException e) {
+            // Cached image was evicted while it was being opened, or the system deleted it from the cache directory
+            if (imageCache != null) {
+                imageCache.remove(src);
+            }
             return null;
-        }
-        finally {
+        } finally {
             if (input != null) {
                 try {
                     input.close();
@@ -155,19 +419,251 @@ public class DownloadManager {
                     e.printStackTrace();
                 }
             }
+        }
+    }
+
+    private static byte[] readFully(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(16 * 1024);
+        byte[] buffer = new byte[8 * 1024];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+        }
+        return output.toByteArray();
+    }
+
+    static Bitmap decodeSampledBitmap(byte[] data, int reqWidth, int reqHeight, RenderMetrics.Trace trace) {
+        long start = System.nanoTime();
+        BitmapFactory.Options bmOptions = new BitmapFactory.Options();
 
-            if (flushedInputStream != null) {
+        // First pass only reads the image bounds
+        bmOptions.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, bmOptions);
+        if (bmOptions.outWidth <= 0 || bmOptions.outHeight <= 0) {
+            return null;
+        }
+
+        bmOptions.inSampleSize = calculateInSampleSize(bmOptions.outWidth, bmOptions.outHeight, reqWidth, reqHeight);
+        bmOptions.inJustDecodeBounds = false;
+        // JPEG has no alpha channel, so half the memory is enough. Others keep ARGB_8888 for their transparency
+        bmOptions.inPreferredConfig = "image/jpeg".equals(bmOptions.outMimeType) ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+        bmOptions.inMutable = true;
+
+        BitmapPool bitmapPool = BitmapPool.getInstance();
+        int sampledWidth = (bmOptions.outWidth + bmOptions.inSampleSize - 1) / bmOptions.inSampleSize;
+        int sampledHeight = (bmOptions.outHeight + bmOptions.inSampleSize - 1) / bmOptions.inSampleSize;
+        bmOptions.inBitmap = bitmapPool.get(sampledWidth, sampledHeight, bmOptions.inPreferredConfig);
+
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, bmOptions);
+        } catch (IllegalArgumentException e) {
+            // Pooled bitmap could not be reused for this image
+            bitmapPool.put(bmOptions.inBitmap);
+            bmOptions.inBitmap = null;
+            bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, bmOptions);
+        }
+        if (bitmap == null && bmOptions.inBitmap != null) {
+            bitmapPool.put(bmOptions.inBitmap);
+        }
+        bitmap = cropToTarget(scaleToCover(bitmap, reqWidth, reqHeight), reqWidth, reqHeight);
+        if (trace != null) {
+            trace.recordDecode(System.nanoTime() - start);
+        } else {
+            RenderMetrics.record(RenderMetrics.STYLE_ANY, RenderMetrics.Phase.DECODE, System.nanoTime() - start);
+        }
+        if (bitmap != null) {
+            RenderMetrics.add(RenderMetrics.BYTES_DECODED, bitmap.getByteCount());
+        }
+        return bitmap;
+    }
+
+    /**
+     * @return largest power of two sample size which keeps the decoded image at least as large as the target size
+     */
+    static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+        if (reqWidth <= 0 && reqHeight <= 0) {
+            return inSampleSize;
+        }
+        while ((reqWidth <= 0 || width / (inSampleSize * 2) >= reqWidth)
+                && (reqHeight <= 0 || height / (inSampleSize * 2) >= reqHeight)) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    /**
+     * Crops the center of the image to the target size. Nothing outside of it is shown by a centerCrop ImageView of
+     * that size, so the rest would only add to the notification payload.
+     */
+    static Bitmap cropToTarget(Bitmap bitmap, int reqWidth, int reqHeight) {
+        if (bitmap == null) {
+            return null;
+        }
+        int width = reqWidth > 0 ? Math.min(bitmap.getWidth(), reqWidth) : bitmap.getWidth();
+        int height = reqHeight > 0 ? Math.min(bitmap.getHeight(), reqHeight) : bitmap.getHeight();
+        if (width == bitmap.getWidth() && height == bitmap.getHeight()) {
+            return bitmap;
+        }
+        int left = (bitmap.getWidth() - width) / 2;
+        int top = (bitmap.getHeight() - height) / 2;
+
+        Bitmap.Config config = bitmap.getConfig() != null ? bitmap.getConfig() : Bitmap.Config.ARGB_8888;
+        Bitmap cropped = BitmapPool.getInstance().getReconfigured(width, height, config);
+        if (cropped != null) {
+            Canvas canvas = new Canvas(cropped);
+            canvas.drawBitmap(bitmap, new Rect(left, top, left + width, top + height), new Rect(0, 0, width, height), null);
+        } else {
+            cropped = Bitmap.createBitmap(bitmap, left, top, width, height);
+        }
+        if (cropped != bitmap) {
+            // Uncropped bitmap is private to this decode, so its memory can go straight to the next one
+            BitmapPool.getInstance().put(bitmap);
+        }
+        return cropped;
+    }
+
+    static Bitmap scaleToCover(Bitmap bitmap, int reqWidth, int reqHeight) {
+        if (bitmap == null || (reqWidth <= 0 && reqHeight <= 0)) {
+            return bitmap;
+        }
+        float widthScale = reqWidth > 0 ? (float) reqWidth / bitmap.getWidth() : 0f;
+        float heightScale = reqHeight > 0 ? (float) reqHeight / bitmap.getHeight() : 0f;
+        float scale = Math.max(widthScale, heightScale);
+        if (scale >= 1f) {
+            return bitmap;
+        }
+        int width = Math.max(1, Math.round(bitmap.getWidth() * scale));
+        int height = Math.max(1, Math.round(bitmap.getHeight() * scale));
+
+        Bitmap.Config config = bitmap.getConfig() != null ? bitmap.getConfig() : Bitmap.Config.ARGB_8888;
+        Bitmap scaled = BitmapPool.getInstance().getReconfigured(width, height, config);
+        if (scaled != null) {
+            Canvas canvas = new Canvas(scaled);
+            canvas.scale((float) width / bitmap.getWidth(), (float) height / bitmap.getHeight());
+            canvas.drawBitmap(bitmap, 0, 0, new Paint(Paint.FILTER_BITMAP_FLAG));
+        } else {
+            scaled = Bitmap.createScaledBitmap(bitmap, width, height, true);
+        }
+        if (scaled != bitmap) {
+            // Intermediate bitmap is private to this decode, so its memory can go straight to the next one
+            BitmapPool.getInstance().put(bitmap);
+        }
+        return scaled;
+    }
+
+    /**
+     * Downloads the image into the image cache without decoding it.
+     */
+    public static void downloadBitmap(String src) {
+        Log.d(TAG, "Downloading image: " + src);
+        warmImageCache(src, null);
+    }
+
+    /**
+     * Streams the image into the image cache without decoding it. Concurrent calls for the same url without a sink share
+     * one transfer.
+     *
+     * @param sink optional stream which also receives the image bytes, can be null
+     * @return true if the complete image was received, else false
+     */
+    public static boolean warmImageCache(String src, OutputStream sink) {
+        return warmImageCache(src, sink, Long.MAX_VALUE);
+    }
+
+    /**
+     * Same as {@link #warmImageCache(String, OutputStream)}, but waits for a transfer of the same url already running on
+     * another thread only until the deadline.
+     *
+     * @param deadline time in {@link SystemClock#elapsedRealtime()} after which a running transfer is not waited for
+     */
+    public static boolean warmImageCache(final String src, final OutputStream sink, long deadline) {
+        awaitCaches();
+        try {
+            if (sink != null) {
+                return streamImageData(src, sink);
+            }
+            Boolean warmed = WARM_FLIGHTS.execute(src, new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return streamImageData(src, null);
+                }
+            }, remaining(deadline));
+            return Boolean.TRUE.equals(warmed);
+        } catch (TimeoutException e) {
+            Log.w(TAG, "Image still downloading on another thread at the deadline: " + src);
+            return false;
+        } catch (IOException e) {
+            Log.e(TAG, "Exception while downloading image: " + src, e);
+            return false;
+        } catch (Exception e) {
+            Log.e(TAG, "Unexpected exception while downloading image: " + src, e);
+            return false;
+        }
+    }
+
+    private static boolean streamImageData(String src, OutputStream sink) throws IOException {
+        ImageDiskCache imageCache = ImageDiskCache.getInstalled();
+        ImageDiskCache.Editor editor = null;
+        InputStream input = null;
+        boolean complete = false;
+        if (sink == null && imageCache != null && imageCache.get(src) != null) {
+            Log.d(TAG, "Image already cached: " + src);
+            return true;
+        }
+        try {
+            HttpURLConnection connection = openConnection(src);
+            connection.connect();
+            int responseCode = connection.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                Log.e(TAG, "status response code: " + responseCode + " while downloading image: " + src);
+                return false;
+            }
+
+            // The cache entry is written to a temporary file and only becomes visible once the editor is committed after the
+            // whole body arrived. Any failure before that aborts the editor, so a partial image is never cached
+            input = connection.getInputStream();
+            OutputStream cacheOutput = null;
+            if (imageCache != null) {
+                editor = imageCache.edit(src);
+                cacheOutput = editor.newOutputStream();
+            }
+            long expectedLength = connection.getContentLength();
+            long receivedLength = 0;
+            byte[] buffer = new byte[8 * 1024];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                if (cacheOutput != null) {
+                    cacheOutput.write(buffer, 0, read);
+                }
+                if (sink != null) {
+                    sink.write(buffer, 0, read);
+                }
+                receivedLength += read;
+            }
+            RenderMetrics.add(RenderMetrics.BYTES_DOWNLOADED, receivedLength);
+            if (expectedLength >= 0 && expectedLength != receivedLength) {
+                Log.e(TAG, "Incomplete image: " + src + ", expected " + expectedLength + " bytes, received " + receivedLength);
+                return false;
+            }
+            if (editor != null) {
+                editor.commit();
+            }
+            complete = true;
+            Log.d(TAG, "Downloaded " + receivedLength + " bytes: " + src);
+            return true;
+        } finally {
+            if (!complete && editor != null) {
+                editor.abort();
+            }
+            if (input != null) {
                 try {
-                    flushedInputStream.close();
+                    input.close();
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
             }
         }
     }
-
-    public static void downloadBitmap(String src) {
-        Log.d(TAG, "Downloading image: " + src);
-        getBitmapFromURL(src, false);
-    }
 }
@@ -0,0 +1,233 @@
+package com.webengage.android.pushlayouts;
+
+import android.graphics.Color;
+import android.graphics.Typeface;
+import android.support.v4.text.HtmlCompat;
+import android.text.Spannable;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.SpannedString;
+import android.text.style.ForegroundColorSpan;
+import android.text.style.StyleSpan;
+import android.text.style.UnderlineSpan;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Converts campaign HTML to styled text. Campaign copy only uses {@code <b>}, {@code <i>}, {@code <u>},
+ * {@code <font color>} and {@code <br>}, which are parsed here in a single pass without the framework HTML parser.
+ * Any other markup falls back to {@link HtmlCompat}. Results are cached by their source, as the same copy is rendered
+ * again on every update of a notification.
+ */
+public class HtmlSpans {
+    private static final String TAG = HtmlSpans.class.getSimpleName();
+
+    private static final int MAX_ENTRIES = 64;
+
+    private static final LruCache<String, Spanned> CACHE = new LruCache<>(MAX_ENTRIES);
+
+    private static class OpenTag {
+        final String name;
+        final int start;
+        final int color;
+
+        OpenTag(String name, int start, int color) {
+            this.name = name;
+            this.start = start;
+            this.color = color;
+        }
+    }
+
+    /**
+     * @return styled text for the html, same as {@link HtmlCompat#fromHtml(String, int)} in compact mode
+     */
+    public static Spanned fromHtml(String html) {
+        if (html == null) {
+            return null;
+        }
+        Spanned spanned = CACHE.get(html);
+        if (spanned != null) {
+            return spanned;
+        }
+
+        long start = System.nanoTime();
+        spanned = parse(html);
+        if (spanned != null) {
+            Log.d(TAG, "Parsed " + html.length() + " chars in " + (System.nanoTime() - start) / 1000 + " us");
+        } else {
+            spanned = HtmlCompat.fromHtml(html, HtmlCompat.FROM_HTML_MODE_COMPACT);
+            Log.d(TAG, "Parsed " + html.length() + " chars with HtmlCompat in " + (System.nanoTime() - start) / 1000 + " us");
+        }
+        CACHE.put(html, spanned);
+        return spanned;
+    }
+
+    public static void clear() {
+        CACHE.evictAll();
+    }
+
+    public static int hitCount() {
+        return CACHE.hitCount();
+    }
+
+    public static int missCount() {
+        return CACHE.missCount();
+    }
+
+    /**
+     * @return styled text, or null if the html uses markup which is not supported here
+     */
+    static Spanned parse(String html) {
+        SpannableStringBuilder builder = new SpannableStringBuilder();
+        List<OpenTag> openTags = new ArrayList<>();
+        int length = html.length();
+        int i = 0;
+        while (i < length) {
+            char c = html.charAt(i);
+            if (c == '<') {
+                int end = html.indexOf('>', i);
+                if (end < 0) {
+                    return null;
+                }
+                if (!handleTag(html.substring(i + 1, end).trim(), builder, openTags)) {
+                    return null;
+                }
+                i = end + 1;
+            } else if (c == '&') {
+                int end = html.indexOf(';', i);
+                char entity = end < 0 ? 0 : decodeEntity(html.substring(i + 1, end));
+                if (entity == 0) {
+                    return null;
+                }
+                builder.append(entity);
+                i = end + 1;
+            } else if (c == ' ' || c == '\n') {
+                // Like the framework parser, a run of spaces and line breaks shows as a single space. Other white space
+                // such as tabs is kept as is
+                int last = builder.length() - 1;
+                if (last >= 0 && builder.charAt(last) != ' ' && builder.charAt(last) != '\n') {
+                    builder.append(' ');
+                }
+                i++;
+            } else {
+                builder.append(c);
+                i++;
+            }
+        }
+        if (!openTags.isEmpty()) {
+            return null;
+        }
+        return new SpannedString(builder);
+    }
+
+    private static boolean handleTag(String tag, SpannableStringBuilder builder, List<OpenTag> openTags) {
+        String lowerTag = tag.toLowerCase(Locale.US);
+        if (lowerTag.equals("br") || lowerTag.equals("br/") || lowerTag.equals("br /")) {
+            builder.append('\n');
+            return true;
+        }
+
+        if (lowerTag.startsWith("/")) {
+            String name = lowerTag.substring(1).trim();
+            if (openTags.isEmpty()) {
+                return false;
+            }
+            OpenTag openTag = openTags.remove(openTags.size() - 1);
+            if (!openTag.name.equals(name)) {
+                return false;
+            }
+            Object span = createSpan(openTag);
+            if (span != null && builder.length() > openTag.start) {
+                builder.setSpan(span, openTag.start, builder.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+            }
+            return true;
+        }
+
+        if (lowerTag.equals("b") || lowerTag.equals("i") || lowerTag.equals("u")) {
+            openTags.add(new OpenTag(lowerTag, builder.length(), 0));
+            return true;
+        }
+        if (lowerTag.startsWith("font ")) {
+            Integer color = parseFontColor(tag.substring(5).trim());
+            if (color == null) {
+                return false;
+            }
+            openTags.add(new OpenTag("font", builder.length(), color));
+            return true;
+        }
+        return false;
+    }
+
+    private static Object createSpan(OpenTag openTag) {
+        switch (openTag.name) {
+            case "b":
+                return new StyleSpan(Typeface.BOLD);
+            case "i":
+                return new StyleSpan(Typeface.ITALIC);
+            case "u":
+                return new UnderlineSpan();
+            case "font":
+                return new ForegroundColorSpan(openTag.color);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return color of a font tag with a single {@code #RRGGBB} color attribute, or null if the attributes are not
+     * supported here. Named colors differ between the framework parser and {@link Color#parseColor(String)}, e.g.
+     * green is #008000 for the former and #00FF00 for the latter, and also between releases of the framework parser,
+     * so they are left to {@link HtmlCompat}. Short and alpha hex forms are left to it as well.
+     */
+    private static Integer parseFontColor(String attributes) {
+        int equals = attributes.indexOf('=');
+        if (equals < 0 || !attributes.substring(0, equals).trim().equalsIgnoreCase("color")) {
+            return null;
+        }
+        String value = attributes.substring(equals + 1).trim();
+        if (value.length() >= 2 && (value.charAt(0) == '"' || value.charAt(0) == '\'')
+                && value.charAt(value.length() - 1) == value.charAt(0)) {
+            value = value.substring(1, value.length() - 1).trim();
+        }
+        if (value.length() != 7 || value.charAt(0) != '#') {
+            return null;
+        }
+        int rgb = 0;
+        for (int i = 1; i < value.length(); i++) {
+            int digit = Character.digit(value.charAt(i), 16);
+            if (digit < 0) {
+                return null;
+            }
+            rgb = (rgb << 4) | digit;
+        }
+        // The framework parser always makes font colors opaque
+        return Color.BLACK | rgb;
+    }
+
+    /**
+     * @return character for the entity name, or 0 if the entity is not supported here
+     */
+    private static char decodeEntity(String name) {
+        switch (name) {
+            case "amp":
+                return '&';
+            case "lt":
+                return '<';
+            case "gt":
+                return '>';
+            case "quot":
+                return '"';
+            case "apos":
+            case "#39":
+                return '\'';
+            case "nbsp":
+                return '\u00a0';
+            default:
+                return 0;
+        }
+    }
+}
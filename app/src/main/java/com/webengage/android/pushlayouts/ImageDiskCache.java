@@ -0,0 +1,381 @@
+package com.webengage.android.pushlayouts;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Disk cache of downloaded images. All changes are recorded in a journal, so the cache never loses track of its
+ * entries. Entries expire after a fixed time and least recently used entries are evicted when the cache grows past its
+ * capacity.
+ *
+ * Journal lines are "CLEAN key size timestamp" for a committed entry, "READ key" for an access and "REMOVE key" for a
+ * deleted entry.
+ */
+public class ImageDiskCache {
+    private static final String TAG = ImageDiskCache.class.getSimpleName();
+
+    private static final String JOURNAL_FILE = "journal";
+    private static final String JOURNAL_FILE_TMP = "journal.tmp";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final String CLEAN = "CLEAN";
+    private static final String READ = "READ";
+    private static final String REMOVE = "REMOVE";
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+
+    private static volatile ImageDiskCache installed;
+
+    private final File directory;
+    private final long maxSize;
+    private final long timeToLive;
+
+    // Access ordered, so iteration starts from the least recently used entry
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(0, 0.75f, true);
+    private long size;
+    private int redundantOpCount;
+    private Writer journalWriter;
+
+    private static class Entry {
+        final long length;
+        final long timestamp;
+
+        Entry(long length, long timestamp) {
+            this.length = length;
+            this.timestamp = timestamp;
+        }
+    }
+
+    private ImageDiskCache(File directory, long maxSize, long timeToLive) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * Opens the cache in the given directory, creating it if needed, and makes it available through {@link #getInstalled()}.
+     *
+     * @param maxSize    capacity of the cache in bytes
+     * @param timeToLive time in milliseconds after which an entry expires
+     */
+    public static ImageDiskCache install(File directory, long maxSize, long timeToLive) throws IOException {
+        ImageDiskCache cache = new ImageDiskCache(directory, maxSize, timeToLive);
+        cache.open();
+        installed = cache;
+        return cache;
+    }
+
+    public static ImageDiskCache getInstalled() {
+        return installed;
+    }
+
+    private synchronized void open() throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Could not create image cache directory: " + directory);
+        }
+
+        File journalFile = new File(directory, JOURNAL_FILE);
+        if (journalFile.exists()) {
+            try {
+                readJournal(journalFile);
+            } catch (IOException e) {
+                Log.e(TAG, "Corrupt journal, clearing image cache", e);
+                entries.clear();
+                size = 0;
+            }
+        }
+
+        // Anything on disk which is not in the journal is left over from an interrupted write
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (!name.equals(JOURNAL_FILE) && !entries.containsKey(name)) {
+                    file.delete();
+                }
+            }
+        }
+
+        rebuildJournal();
+        evictExpired();
+        trimToSize();
+    }
+
+    private void readJournal(File journalFile) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), "UTF-8"));
+        try {
+            String line;
+            int lineCount = 0;
+            while ((line = reader.readLine()) != null) {
+                lineCount++;
+                String[] parts = line.split(" ");
+                if (CLEAN.equals(parts[0]) && parts.length == 4) {
+                    Entry previous = entries.put(parts[1], new Entry(Long.parseLong(parts[2]), Long.parseLong(parts[3])));
+                    size += Long.parseLong(parts[2]) - (previous != null ? previous.length : 0);
+                } else if (READ.equals(parts[0]) && parts.length == 2) {
+                    entries.get(parts[1]);
+                } else if (REMOVE.equals(parts[0]) && parts.length == 2) {
+                    Entry previous = entries.remove(parts[1]);
+                    if (previous != null) {
+                        size -= previous.length;
+                    }
+                } else {
+                    // Last line may be cut short if the process died while appending it
+                    Log.w(TAG, "Skipping invalid journal line: " + line);
+                }
+            }
+            redundantOpCount = lineCount - entries.size();
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid journal", e);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Writes a journal containing only the current entries and atomically replaces the old one.
+     */
+    private void rebuildJournal() throws IOException {
+        if (journalWriter != null) {
+            journalWriter.close();
+        }
+
+        File tmpJournalFile = new File(directory, JOURNAL_FILE_TMP);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpJournalFile), "UTF-8"));
+        try {
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                writer.write(CLEAN + " " + entry.getKey() + " " + entry.getValue().length + " " + entry.getValue().timestamp + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+        if (!tmpJournalFile.renameTo(new File(directory, JOURNAL_FILE))) {
+            throw new IOException("Could not replace journal");
+        }
+
+        journalWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(directory, JOURNAL_FILE), true), "UTF-8"));
+        redundantOpCount = 0;
+    }
+
+    private void appendJournal(String line) {
+        try {
+            journalWriter.write(line + "\n");
+            journalWriter.flush();
+            if (redundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD && redundantOpCount >= entries.size()) {
+                rebuildJournal();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Exception while writing journal", e);
+        }
+    }
+
+    /**
+     * @return file of the cached image for the url, or null if it is not cached or has expired
+     */
+    public synchronized File get(String url) {
+        String key = hash(url);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (isExpired(entry)) {
+            removeEntry(key);
+            RenderMetrics.increment(RenderMetrics.IMAGE_CACHE_EVICTIONS);
+            return null;
+        }
+        redundantOpCount++;
+        appendJournal(READ + " " + key);
+        return new File(directory, key);
+    }
+
+    /**
+     * Starts writing a new image for the url. The image becomes visible to {@link #get(String)} only once the editor
+     * is committed.
+     */
+    public Editor edit(String url) throws IOException {
+        return new Editor(hash(url));
+    }
+
+    public void put(String url, byte[] data) {
+        Editor editor = null;
+        try {
+            editor = edit(url);
+            OutputStream output = editor.newOutputStream();
+            output.write(data);
+            output.close();
+            editor.commit();
+        } catch (IOException e) {
+            Log.e(TAG, "Exception while caching image: " + url, e);
+            if (editor != null) {
+                editor.abort();
+            }
+        }
+    }
+
+    public synchronized void remove(String url) {
+        removeEntry(hash(url));
+    }
+
+    private void removeEntry(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            new File(directory, key).delete();
+            size -= entry.length;
+            redundantOpCount += 2;
+            appendJournal(REMOVE + " " + key);
+        }
+    }
+
+    private boolean isExpired(Entry entry) {
+        return System.currentTimeMillis() - entry.timestamp > timeToLive;
+    }
+
+    /**
+     * Removes all the entries older than the time to live.
+     */
+    public synchronized void evictExpired() {
+        List<String> expiredKeys = new ArrayList<>();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (isExpired(entry.getValue())) {
+                expiredKeys.add(entry.getKey());
+            }
+        }
+        for (String key : expiredKeys) {
+            removeEntry(key);
+        }
+        RenderMetrics.add(RenderMetrics.IMAGE_CACHE_EVICTIONS, expiredKeys.size());
+        if (!expiredKeys.isEmpty()) {
+            Log.d(TAG, "Evicted " + expiredKeys.size() + " expired images");
+        }
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        List<String> evictedKeys = new ArrayList<>();
+        long newSize = size;
+        while (newSize > maxSize && iterator.hasNext()) {
+            Map.Entry<String, Entry> entry = iterator.next();
+            evictedKeys.add(entry.getKey());
+            newSize -= entry.getValue().length;
+        }
+        for (String key : evictedKeys) {
+            removeEntry(key);
+        }
+        RenderMetrics.add(RenderMetrics.IMAGE_CACHE_EVICTIONS, evictedKeys.size());
+    }
+
+    public synchronized long size() {
+        return size;
+    }
+
+    public long maxSize() {
+        return maxSize;
+    }
+
+    private synchronized void completeEdit(String key, File tmpFile) throws IOException {
+        File file = new File(directory, key);
+        long length = tmpFile.length();
+        if (!tmpFile.renameTo(file)) {
+            tmpFile.delete();
+            throw new IOException("Could not commit image cache entry");
+        }
+        Entry previous = entries.put(key, new Entry(length, System.currentTimeMillis()));
+        if (previous != null) {
+            size -= previous.length;
+            redundantOpCount++;
+        }
+        size += length;
+        appendJournal(CLEAN + " " + key + " " + length + " " + entries.get(key).timestamp);
+        trimToSize();
+    }
+
+    public class Editor {
+        private final String key;
+        private final File tmpFile;
+        private OutputStream outputStream;
+        private boolean hasErrors;
+
+        private Editor(String key) {
+            this.key = key;
+            this.tmpFile = new File(directory, key + "." + Thread.currentThread().getId() + TMP_SUFFIX);
+        }
+
+        public OutputStream newOutputStream() throws IOException {
+            outputStream = new FilterOutputStream(new FileOutputStream(tmpFile)) {
+                @Override
+                public void write(byte[] buffer, int offset, int length) {
+                    try {
+                        out.write(buffer, offset, length);
+                    } catch (IOException e) {
+                        hasErrors = true;
+                    }
+                }
+
+                @Override
+                public void write(int oneByte) {
+                    try {
+                        out.write(oneByte);
+                    } catch (IOException e) {
+                        hasErrors = true;
+                    }
+                }
+            };
+            return outputStream;
+        }
+
+        public void commit() throws IOException {
+            closeStream();
+            if (hasErrors) {
+                abort();
+                throw new IOException("Write failed for image cache entry");
+            }
+            completeEdit(key, tmpFile);
+        }
+
+        public void abort() {
+            closeStream();
+            tmpFile.delete();
+        }
+
+        private void closeStream() {
+            if (outputStream != null) {
+                try {
+                    outputStream.close();
+                } catch (IOException e) {
+                    hasErrors = true;
+                }
+                outputStream = null;
+            }
+        }
+    }
+
+    /**
+     * @return file name safe hash of the key
+     */
+    static String hash(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] bytes = digest.digest(key.getBytes("UTF-8"));
+            return String.format("%032x", new BigInteger(1, bytes));
+        } catch (NoSuchAlgorithmException | IOException e) {
+            return String.valueOf(key.hashCode());
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.webengage.android.pushlayouts;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads a set of images concurrently so that the render only has to wait for the images it is about to show.
+ * Images which are not awaited keep downloading in the background.
+ *
+ * All downloads share a bounded number of threads. Queued downloads run in order of priority, so when a burst of pushes
+ * arrives the images a render is blocked on go first, then the rest of the images of rendering notifications, and
+ * background warm up comes last.
+ */
+public class ImagePrefetcher {
+    private static final String TAG = ImagePrefetcher.class.getSimpleName();
+
+    public static final int DEFAULT_PARALLELISM = 4;
+    public static final long DEFAULT_DEADLINE_MS = 10 * 1000;
+
+    // Lower value runs first
+    static final int PRIORITY_VISIBLE = 0;
+    static final int PRIORITY_RENDER = 1;
+    static final int PRIORITY_BACKGROUND = 2;
+
+    private static volatile ImagePrefetcher defaultInstance;
+
+    private final ExecutorService executor;
+    private final long deadlineMs;
+    // Keeps tasks of the same priority in submission order
+    private final AtomicLong sequence = new AtomicLong();
+
+    public ImagePrefetcher() {
+        this(DEFAULT_PARALLELISM, DEFAULT_DEADLINE_MS);
+    }
+
+    /**
+     * @return process wide prefetcher, shared by all the renders so that they share its download threads
+     */
+    public static ImagePrefetcher getDefault() {
+        if (defaultInstance == null) {
+            synchronized (ImagePrefetcher.class) {
+                if (defaultInstance == null) {
+                    defaultInstance = new ImagePrefetcher();
+                }
+            }
+        }
+        return defaultInstance;
+    }
+
+    /**
+     * @param parallelism maximum number of images downloaded at the same time
+     * @param deadlineMs  overall time after which a batch stops waiting for its images
+     */
+    public ImagePrefetcher(int parallelism, long deadlineMs) {
+        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(parallelism, parallelism,
+                30, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(), new PrefetchThreadFactory("image-prefetch-"));
+        threadPoolExecutor.allowCoreThreadTimeOut(true);
+        this.executor = threadPoolExecutor;
+        this.deadlineMs = deadlineMs;
+    }
+
+    /**
+     * Starts downloading all the given images into the image cache.
+     *
+     * @return Batch which can be used to wait for a subset of the images
+     */
+    public Batch prefetch(List<String> urls) {
+        return prefetch(urls, Collections.<String>emptySet(), SystemClock.elapsedRealtime() + deadlineMs, null, null,
+                PRIORITY_BACKGROUND);
+    }
+
+    /**
+     * Starts downloading all the given images into the image cache, waiting for them at most till the end of the
+     * render budget. The images the render is about to wait for go ahead of the rest.
+     *
+     * @param awaited  images the caller waits for with {@link Batch#await(Collection)}
+     * @param manifest manifest which records the outcome of each download, can be null
+     * @return Batch which can be used to wait for a subset of the images
+     */
+    public Batch prefetch(List<String> urls, Collection<String> awaited, RenderBudget budget, AssetManifest manifest) {
+        return prefetch(urls, awaited, budget.getDeadline(), budget, manifest, PRIORITY_RENDER);
+    }
+
+    private Batch prefetch(List<String> urls, Collection<String> awaited, final long deadline, RenderBudget budget,
+                           final AssetManifest manifest, int priority) {
+        Map<String, Future<?>> futures = new LinkedHashMap<>();
+        for (final String url : urls) {
+            if (url == null || futures.containsKey(url)) {
+                continue;
+            }
+            futures.put(url, submit(Executors.callable(new Runnable() {
+                @Override
+                public void run() {
+                    boolean downloaded = DownloadManager.warmImageCache(url, null, deadline);
+                    if (manifest != null) {
+                        manifest.record(url, downloaded);
+                    }
+                }
+            }), awaited.contains(url) ? PRIORITY_VISIBLE : priority));
+        }
+        return new Batch(futures, deadline, budget);
+    }
+
+    /**
+     * Decodes the given images for the target size into the memory cache in background, downloading them if needed.
+     */
+    public void preload(List<String> urls, final int width, final int height) {
+        for (final String url : urls) {
+            if (url == null) {
+                continue;
+            }
+            submit(Executors.callable(new Runnable() {
+                @Override
+                public void run() {
+                    DownloadManager.getBitmapFromURL(url, false, width, height);
+                }
+            }), PRIORITY_BACKGROUND);
+        }
+    }
+
+    /**
+     * Loads the image within its share of the render budget. A fetch which runs out of time is cancelled.
+     *
+     * @param trace trace of the render the image is for, which records the decode. Can be null
+     * @return loaded image, or null if it could not be loaded within the budget
+     */
+    public Bitmap fetch(final String url, final int width, final int height, final RenderBudget budget,
+                        final RenderMetrics.Trace trace) {
+        long slice = budget.nextSlice();
+        if (slice <= 0) {
+            budget.reportExhausted(url);
+            return null;
+        }
+
+        Future<Bitmap> future = submit(new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() {
+                // A transfer of the same image stuck on another thread must not hold this worker past the budget
+                return DownloadManager.getBitmapFromURL(url, false, width, height, budget.getDeadline(), trace);
+            }
+        }, PRIORITY_VISIBLE);
+        try {
+            return future.get(slice, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            budget.reportExhausted(url);
+            return null;
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Exception while fetching: " + url, e);
+            return null;
+        }
+    }
+
+    private <T> Future<T> submit(Callable<T> callable, int priority) {
+        PriorityTask<T> task = new PriorityTask<>(callable, priority, sequence.getAndIncrement());
+        executor.execute(task);
+        return task;
+    }
+
+    private static class PriorityTask<T> extends FutureTask<T> implements Comparable<PriorityTask<?>> {
+        private final int priority;
+        private final long sequence;
+
+        PriorityTask(Callable<T> callable, int priority, long sequence) {
+            super(callable);
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(PriorityTask<?> other) {
+            if (priority != other.priority) {
+                return priority < other.priority ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    public static class Batch {
+        private final Map<String, Future<?>> futures;
+        private final long deadline;
+        private final RenderBudget budget;
+
+        private Batch(Map<String, Future<?>> futures, long deadline, RenderBudget budget) {
+            this.futures = futures;
+            this.deadline = deadline;
+            this.budget = budget;
+        }
+
+        /**
+         * Blocks until the given images are downloaded or the batch deadline is reached. Downloads of the given images
+         * which are still running at the deadline are cancelled.
+         *
+         * @return true if all the given images finished downloading before the deadline, else false
+         */
+        public boolean await(Collection<String> urls) {
+            boolean completed = true;
+            // A carousel with few frames can ask for the same image more than once
+            for (String url : new LinkedHashSet<>(urls)) {
+                Future<?> future = futures.get(url);
+                if (future == null) {
+                    continue;
+                }
+                long remaining = deadline - SystemClock.elapsedRealtime();
+                try {
+                    future.get(Math.max(remaining, 0), TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    Log.w(TAG, "Prefetch deadline reached while waiting for: " + url);
+                    future.cancel(true);
+                    if (budget != null) {
+                        budget.reportExhausted(url);
+                    }
+                    completed = false;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                } catch (CancellationException e) {
+                    // Cancelled at the deadline of an earlier wait
+                    completed = false;
+                } catch (ExecutionException e) {
+                    Log.e(TAG, "Exception while prefetching: " + url, e);
+                    completed = false;
+                }
+            }
+            return completed;
+        }
+    }
+
+    private static class PrefetchThreadFactory implements ThreadFactory {
+        private final String namePrefix;
+        private final AtomicInteger count = new AtomicInteger(1);
+
+        PrefetchThreadFactory(String namePrefix) {
+            this.namePrefix = namePrefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, namePrefix + count.getAndIncrement());
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.webengage.android.pushlayouts;
 
 import android.app.Application;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.google.android.gms.tasks.OnSuccessListener;
@@ -16,15 +17,39 @@ public class MainApplication extends Application {
     @Override
     public void onCreate() {
         super.onCreate();
+        DownloadManager.beginTraceSection("MainApplication.onCreate");
+        long start = SystemClock.elapsedRealtime();
 
-        initHttpCache();
+        initImageCache();
+
+        initNotificationChannels();
 
         initWebEngage();
+
+        DownloadManager.endTraceSection();
+        Log.d(TAG, "onCreate took " + (SystemClock.elapsedRealtime() - start) + " ms");
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        DownloadManager.onTrimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        DownloadManager.onLowMemory();
+    }
+
+    private void initImageCache() {
+        // Cache setup does disk I/O, keep it off the main thread
+        DownloadManager.initCachesAsync(this);
     }
 
-    private void initHttpCache() {
-        DownloadManager.createHttpCache(this);
-        DownloadManager.cleanHttpCache(this, 3);
+    private void initNotificationChannels() {
+        // Channel lookup is a call to the system server, keep it off the main thread
+        NotificationChannelRegistry.getInstance(this).syncAsync();
     }
 
     private void initWebEngage() {
@@ -37,8 +62,11 @@ public class MainApplication extends Application {
 
         // Register for custom push render callbacks
         MyPushRenderer myPushRenderer = new MyPushRenderer();
+        myPushRenderer.setProgressiveRendering(true);
         WebEngage.registerCustomPushRenderCallback(myPushRenderer);
         WebEngage.registerCustomPushRerenderCallback(myPushRenderer);
+        // Tells the renderer when its notifications are closed
+        WebEngage.registerPushNotificationCallback(myPushRenderer);
 
         try {
             FirebaseInstanceId.getInstance().getInstanceId().addOnSuccessListener(new OnSuccessListener<InstanceIdResult>() {
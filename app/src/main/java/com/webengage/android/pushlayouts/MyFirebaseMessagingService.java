@@ -1,17 +1,30 @@
 package com.webengage.android.pushlayouts;
 
+import android.util.Log;
+
 import com.google.firebase.messaging.FirebaseMessagingService;
 import com.google.firebase.messaging.RemoteMessage;
 import com.webengage.sdk.android.WebEngage;
 
+import java.util.List;
 import java.util.Map;
 
 public class MyFirebaseMessagingService extends FirebaseMessagingService {
+    private static final String TAG = MyFirebaseMessagingService.class.getSimpleName();
+
     @Override
     public void onMessageReceived(RemoteMessage remoteMessage) {
         Map<String, String> data = remoteMessage.getData();
         if (data != null) {
             if (data.containsKey("source") && "webengage".equals(data.get("source"))) {
+                // Start downloading images right away, so they are cached by the time the push is rendered
+                List<String> imageUrls = PushPayloadScanner.findImageUrls(data);
+                if (!imageUrls.isEmpty()) {
+                    Log.d(TAG, "Prefetching " + imageUrls.size() + " images from push payload");
+                    ImagePrefetcher.getDefault().prefetch(imageUrls);
+                }
+                // Lets the render tell a redelivery of this message from another send of the same variation
+                DeliveryIndex.getInstance(this).onMessageReceived(PushPayloadScanner.findVariationId(data), remoteMessage.getMessageId());
                 WebEngage.get().receive(data);
             }
         }
@@ -1,18 +1,12 @@
 package com.webengage.android.pushlayouts;
 
 import android.app.Notification;
-import android.app.NotificationChannel;
-import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.Build;
 import android.os.Bundle;
-import android.support.annotation.RequiresApi;
 import android.support.v4.app.NotificationCompat;
-import android.support.v4.app.NotificationManagerCompat;
-import android.support.v4.text.HtmlCompat;
 import android.text.Spanned;
 import android.util.Log;
 import android.view.View;
@@ -24,26 +18,307 @@ import com.webengage.sdk.android.actions.render.CarouselV1CallToAction;
 import com.webengage.sdk.android.actions.render.PushNotificationData;
 import com.webengage.sdk.android.callbacks.CustomPushRender;
 import com.webengage.sdk.android.callbacks.CustomPushRerender;
+import com.webengage.sdk.android.callbacks.PushNotificationCallbacks;
 import com.webengage.sdk.android.utils.WebEngageConstant;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
-public class MyPushRenderer implements CustomPushRender, CustomPushRerender {
+public class MyPushRenderer implements CustomPushRender, CustomPushRerender, PushNotificationCallbacks {
     private static final String TAG = MyPushRenderer.class.getSimpleName();
 
-    private static final String MY_CHANNEL_ID = "test-channel-id";
-    private static final String MY_CHANNEL_NAME = "test-channel";
-
-    @RequiresApi(api = Build.VERSION_CODES.O)
-    private void createNotificationChannel(Context context, String channelId, String channelName, int importance) {
-        NotificationManager notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
-        if (notificationManager != null && notificationManager.getNotificationChannel(channelId) == null) {
-            NotificationChannel notificationChannel = new NotificationChannel(channelId, channelName, importance);
-            notificationManager.createNotificationChannel(notificationChannel);
-            Log.d(TAG, "channel created");
-        } else {
-            Log.d(TAG, "channel already exists");
+    private final ImagePrefetcher imagePrefetcher = ImagePrefetcher.getDefault();
+
+    // Number of frames decoded ahead in the direction the user is browsing a carousel
+    private static final int NEIGHBOR_PREFETCH_COUNT = 2;
+
+    static final int[] RATE_IDS = {R.id.rate_1, R.id.rate_2, R.id.rate_3, R.id.rate_4, R.id.rate_5};
+    private static final String RATING_TEMPLATE = "rating";
+    private static final String RERENDER_SUFFIX = "_rerender";
+
+    private boolean progressiveRendering = false;
+    private boolean flipperCarousel = false;
+
+    /**
+     * When enabled, notifications with images are first posted with only the collapsed text view, and then updated
+     * silently once their images are loaded.
+     */
+    public void setProgressiveRendering(boolean progressiveRendering) {
+        this.progressiveRendering = progressiveRendering;
+    }
+
+    /**
+     * When enabled, landscape carousels are rendered with all their frames in a ViewFlipper which advances on its own,
+     * so browsing the carousel does not need any rerender.
+     */
+    public void setFlipperCarousel(boolean flipperCarousel) {
+        this.flipperCarousel = flipperCarousel;
+    }
+
+    private static List<String> getImageUrls(List<CarouselV1CallToAction> ctaList) {
+        List<String> urls = new ArrayList<>(ctaList.size());
+        for (CarouselV1CallToAction cta : ctaList) {
+            urls.add(cta.getImageURL());
+        }
+        return urls;
+    }
+
+    /**
+     * @return urls of the next frames after the given index in the direction of navigation
+     */
+    private static List<String> getNeighborUrls(List<CarouselV1CallToAction> ctaList, int fromIndex, String navigation, int count) {
+        int size = ctaList.size();
+        int step = "left".equals(navigation) ? -1 : 1;
+        List<String> urls = new ArrayList<>(count);
+        for (int i = 1; i <= count && i < size; i++) {
+            int index = ((fromIndex + step * i) % size + size) % size;
+            urls.add(ctaList.get(index).getImageURL());
+        }
+        return urls;
+    }
+
+    /**
+     * Loads the image from cache, going to the network only if it is not cached, and records the outcome in the manifest.
+     */
+    private Bitmap loadImage(String url, int width, int height, RenderBudget budget, AssetManifest manifest,
+                             RenderMetrics.Trace trace) {
+        // Joins loads of the same image running on other threads only while the budget lasts
+        Bitmap img = DownloadManager.getBitmapFromURL(url, true, width, height, budget.getDeadline(), trace);
+        if (img == null) {
+            img = imagePrefetcher.fetch(url, width, height, budget, trace);
+        }
+        manifest.record(url, img != null);
+        return img;
+    }
+
+    private Bitmap getCarouselImage(Context context, String url, int width, int height, RenderBudget budget, AssetManifest manifest,
+                                    RenderMetrics.Trace trace) {
+        Bitmap img = loadImage(url, width, height, budget, manifest, trace);
+        if (img == null) {
+            // Image could not be downloaded. Set a placeholder image
+            img = PlaceholderProvider.getPlaceholder(context, WebEngageConstant.STYLE.CAROUSEL_V1, width, height);
+        }
+        return img;
+    }
+
+    /**
+     * Builds the browse intent for the frame shown. It is built again on every render and not kept in the render state,
+     * as nothing guarantees that the SDK gives each frame index its own pending intent. A kept intent could carry the
+     * extras of the index built last.
+     */
+    private static PendingIntent getBrowsePendingIntent(Context context, PushNotificationData pushNotificationData,
+                                                        int index, String navigation, long when) {
+        Bundle browseExtraData = new Bundle();
+        browseExtraData.putLong("when", when);
+        return PendingIntentFactory.constructCarouselBrowsePendingIntent(context, pushNotificationData, index, navigation, "carousel_" + navigation, browseExtraData);
+    }
+
+    /**
+     * @return intent for a tap on the star, kept in the render state. All five are set on the same view on every render,
+     * so the SDK must already give each rating its own pending intent.
+     */
+    private static PendingIntent getRateClickPendingIntent(Context context, PushNotificationData pushNotificationData, RenderState renderState,
+                                                           int rating, long when) {
+        String key = "rate_click_" + rating;
+        PendingIntent rateClickPendingIntent = renderState.getPendingIntent(key);
+        if (rateClickPendingIntent == null) {
+            Bundle rateClickExtraData = new Bundle();
+            rateClickExtraData.putInt("current", rating);
+            rateClickExtraData.putLong("when", when);
+            rateClickPendingIntent = PendingIntentFactory.constructRerenderPendingIntent(context, pushNotificationData, key, rateClickExtraData);
+            renderState.putPendingIntent(key, rateClickPendingIntent);
+        }
+        return rateClickPendingIntent;
+    }
+
+    /**
+     * @return intents for the taps on the five stars, in order
+     */
+    private static PendingIntent[] getRateClickPendingIntents(Context context, PushNotificationData pushNotificationData,
+                                                              RenderState renderState, long when) {
+        PendingIntent[] rateClickPendingIntents = new PendingIntent[RATE_IDS.length];
+        for (int i = 1; i <= RATE_IDS.length; i++) {
+            rateClickPendingIntents[i - 1] = getRateClickPendingIntent(context, pushNotificationData, renderState, i, when);
+        }
+        return rateClickPendingIntents;
+    }
+
+    /**
+     * Builds the expanded rating view with no star selected and no submit action, which is the part shared by all the
+     * renders of a rating notification.
+     *
+     * @param rateClickPendingIntents intents for the stars, built by the caller so they are timed with its other intents
+     */
+    private RemoteViews buildRatingView(Context context, PushNotificationData pushNotificationData, PendingIntent[] rateClickPendingIntents,
+                                        RenderMetrics.Trace trace) {
+        RemoteViews npsView = new RemoteViews(context.getPackageName(), R.layout.push_rating);
+        npsView.setTextViewText(R.id.notificationTitle, pushNotificationData.getRatingV1().getBigContentTitle());
+        npsView.setTextViewText(R.id.notificationText, pushNotificationData.getRatingV1().getSummary());
+
+        if (pushNotificationData.getRatingV1().getImageUrl() != null) {
+            int imageWidth = context.getResources().getDisplayMetrics().widthPixels;
+            int imageHeight = context.getResources().getDimensionPixelSize(R.dimen.rating_image_height);
+            RenderBudget budget = RenderBudget.start(WebEngageConstant.STYLE.RATING_V1, 1);
+            AssetManifest manifest = AssetManifest.forVariation(pushNotificationData.getVariationId());
+            Bitmap img = loadImage(pushNotificationData.getRatingV1().getImageUrl(), imageWidth, imageHeight, budget, manifest, trace);
+            if (img == null) {
+                img = PlaceholderProvider.getPlaceholder(context, WebEngageConstant.STYLE.RATING_V1, imageWidth, imageHeight);
+            }
+            trace.mark(RenderMetrics.Phase.FETCH);
+            npsView.setViewVisibility(R.id.rate_frame, View.VISIBLE);
+            if (img != null) {
+                npsView.setViewVisibility(R.id.rate_image, View.VISIBLE);
+                Bitmap ratingImage = PayloadBudget.fit("rating", img)[0];
+                if (ratingImage.isMutable()) {
+                    // The view is kept as the template for star taps, so it holds its own copy of the image and not
+                    // the one shared through the memory cache
+                    Bitmap copy = ratingImage.copy(ratingImage.getConfig() != null ? ratingImage.getConfig() : Bitmap.Config.ARGB_8888, false);
+                    ratingImage = copy != null ? copy : ratingImage;
+                }
+                npsView.setImageViewBitmap(R.id.rate_image, ratingImage);
+            } else {
+                npsView.setInt(R.id.rate_frame, "setBackgroundColor", pushNotificationData.getRatingV1().getContentBackgroundColor());
+            }
+        }
+
+        if (pushNotificationData.getRatingV1().getContentTitle() != null) {
+            npsView.setViewVisibility(R.id.rate_frame, View.VISIBLE);
+            npsView.setViewVisibility(R.id.rate_title, View.VISIBLE);
+            npsView.setTextViewText(R.id.rate_title, pushNotificationData.getRatingV1().getContentTitle());
+        }
+
+        if (pushNotificationData.getRatingV1().getContentMessage() != null) {
+            npsView.setViewVisibility(R.id.rate_frame, View.VISIBLE);
+            npsView.setViewVisibility(R.id.rate_message, View.VISIBLE);
+            npsView.setTextViewText(R.id.rate_message, pushNotificationData.getRatingV1().getContentMessage());
+        }
+
+        for (int i = 0; i < RATE_IDS.length; i++) {
+            npsView.setOnClickPendingIntent(RATE_IDS[i], rateClickPendingIntents[i]);
+        }
+        return npsView;
+    }
+
+    static RemoteViews copyRemoteViews(RemoteViews remoteViews) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            return new RemoteViews(remoteViews);
         }
+        return remoteViews.clone();
+    }
+
+    private static String getChannelId(Context context, PushNotificationData pushNotificationData) {
+        return NotificationChannelRegistry.getInstance(context).getChannelId(pushNotificationData.getCustomData());
+    }
+
+    private static int getNotificationId(Context context, PushNotificationData pushNotificationData) {
+        return DeliveryIndex.getInstance(context).getNotificationId(pushNotificationData.getVariationId());
+    }
+
+    /**
+     * Posts the notification, recording the time since the last phase as building the views. Posting only hands the
+     * notification to {@link NotificationPoster}, so the notify phase does not include time spent waiting for the rate
+     * limit.
+     */
+    private static void postNotification(Context context, PushNotificationData pushNotificationData, Notification notification,
+                                         RenderMetrics.Trace trace) {
+        trace.mark(RenderMetrics.Phase.VIEWS);
+        NotificationPoster.getInstance(context).post(getNotificationId(context, pushNotificationData), notification);
+        trace.mark(RenderMetrics.Phase.NOTIFY);
+    }
+
+    /**
+     * @return name the render metrics of the push are recorded under, which includes the layout for carousels
+     */
+    private String getMetricsStyle(PushNotificationData pushNotificationData, boolean rerender) {
+        WebEngageConstant.STYLE style = pushNotificationData.getStyle();
+        String name = String.valueOf(style);
+        Bundle customData = pushNotificationData.getCustomData();
+        if (style == WebEngageConstant.STYLE.BIG_TEXT && customData != null && "html".equalsIgnoreCase(customData.getString("format", ""))) {
+            name += "_html";
+        } else if (style == WebEngageConstant.STYLE.CAROUSEL_V1) {
+            String mode = pushNotificationData.getCarouselV1Data().getMODE();
+            name += "_" + mode;
+            if ("landscape".equals(mode) && flipperCarousel && !rerender) {
+                name += "_flipper";
+            }
+        }
+        return rerender ? name + RERENDER_SUFFIX : name;
+    }
+
+    private void postTextOnlyNotification(Context context, PushNotificationData pushNotificationData, RemoteViews collapsedView,
+                                          PendingIntent contentPendingIntent, PendingIntent deletePendingIntent) {
+        Notification notification = new NotificationCompat.Builder(context, getChannelId(context, pushNotificationData))
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setCustomContentView(collapsedView)
+                .setContentIntent(contentPendingIntent)
+                .setDeleteIntent(deletePendingIntent)
+                .build();
+
+        NotificationPoster.getInstance(context).post(getNotificationId(context, pushNotificationData), notification);
+        Log.d(TAG, "Rendered text only push notification, waiting for images");
+    }
+
+    private boolean renderFlipperCarousel(Context context, PushNotificationData pushNotificationData, RenderMetrics.Trace trace) {
+        RenderState renderState = RenderState.create(context, pushNotificationData);
+        PendingIntent deletePendingIntent = renderState.getDeletePendingIntent();
+        PendingIntent contentPendingIntent = renderState.getContentPendingIntent();
+        trace.mark(RenderMetrics.Phase.INTENTS);
+
+        // Download all images in parallel and cache
+        List<CarouselV1CallToAction> ctas = pushNotificationData.getCarouselV1Data().getCallToActions();
+        List<String> imageUrls = getImageUrls(ctas);
+        RenderBudget budget = RenderBudget.start(WebEngageConstant.STYLE.CAROUSEL_V1, ctas.size());
+        AssetManifest manifest = AssetManifest.forVariation(pushNotificationData.getVariationId());
+        ImagePrefetcher.Batch prefetchBatch = imagePrefetcher.prefetch(imageUrls, imageUrls, budget, manifest);
+
+        RemoteViews collapsedView = renderState.getCollapsedView();
+
+        if (progressiveRendering) {
+            postTextOnlyNotification(context, pushNotificationData, collapsedView, contentPendingIntent, deletePendingIntent);
+        }
+
+        // Every frame is part of the notification, so wait for all of them
+        prefetchBatch.await(imageUrls);
+
+        RemoteViews carouselView = new RemoteViews(context.getPackageName(), R.layout.push_carousel_flipper);
+        carouselView.setTextViewText(R.id.notificationTitle, pushNotificationData.getCarouselV1Data().getBigContentTitle());
+        carouselView.setTextViewText(R.id.notificationText, pushNotificationData.getCarouselV1Data().getSummary());
+
+        int imageWidth = context.getResources().getDisplayMetrics().widthPixels;
+        int imageHeight = context.getResources().getDimensionPixelSize(R.dimen.carousel_image_height);
+        Bitmap[] imgs = new Bitmap[ctas.size()];
+        for (int i = 0; i < ctas.size(); i++) {
+            imgs[i] = getCarouselImage(context, ctas.get(i).getImageURL(), imageWidth, imageHeight, budget, manifest, trace);
+        }
+        // All the frames are sent in one notification, so they share the payload budget
+        imgs = PayloadBudget.fit("flipper carousel", imgs);
+        trace.mark(RenderMetrics.Phase.FETCH);
+
+        for (int i = 0; i < ctas.size(); i++) {
+            CarouselV1CallToAction cta = ctas.get(i);
+
+            // Each frame has its own click intent, so a click is tracked for the frame being shown
+            PendingIntent imagePendingIntent = PendingIntentFactory.constructPushClickPendingIntent(context, pushNotificationData, cta, false);
+            RemoteViews frameView = new RemoteViews(context.getPackageName(), R.layout.push_carousel_frame);
+            frameView.setImageViewBitmap(R.id.carousel_frame_image, imgs[i]);
+            frameView.setOnClickPendingIntent(R.id.carousel_frame_image, imagePendingIntent);
+            carouselView.addView(R.id.carousel_flipper, frameView);
+        }
+
+        Notification notification = new NotificationCompat.Builder(context, getChannelId(context, pushNotificationData))
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setCustomContentView(collapsedView)
+                .setCustomBigContentView(carouselView)
+                .setContentIntent(contentPendingIntent)
+                .setDeleteIntent(deletePendingIntent)
+                .setOnlyAlertOnce(progressiveRendering)
+                .build();
+
+        postNotification(context, pushNotificationData, notification, trace);
+        Log.d(TAG, "Rendered push notification from application: flipper carousel");
+        return true;
     }
 
     @Override
@@ -52,10 +327,30 @@ public class MyPushRenderer implements CustomPushRender, CustomPushRerender {
             return false;
         }
 
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            createNotificationChannel(context, MY_CHANNEL_ID, MY_CHANNEL_NAME, NotificationManager.IMPORTANCE_DEFAULT);
+        // FCM redelivery and SDK retries can hand over a push which is already showing
+        DeliveryIndex deliveryIndex = DeliveryIndex.getInstance(context);
+        String deliveryKey = deliveryIndex.claim(pushNotificationData.getVariationId());
+        if (deliveryKey == null) {
+            Log.d(TAG, "Skipping already rendered push: " + pushNotificationData.getVariationId());
+            return true;
+        }
+
+        RenderMetrics.Trace trace = RenderMetrics.begin(getMetricsStyle(pushNotificationData, false));
+        boolean rendered = false;
+        try {
+            rendered = render(context, pushNotificationData, trace);
+        } finally {
+            if (!rendered) {
+                deliveryIndex.release(deliveryKey);
+            }
         }
+        if (rendered) {
+            trace.end();
+        }
+        return rendered;
+    }
 
+    private boolean render(Context context, PushNotificationData pushNotificationData, RenderMetrics.Trace trace) {
         Bundle customData = pushNotificationData.getCustomData();
         Log.d(TAG, "custom data: " + customData);
 
@@ -63,13 +358,14 @@ public class MyPushRenderer implements CustomPushRender, CustomPushRerender {
         if (pushNotificationData.getStyle() == WebEngageConstant.STYLE.BIG_TEXT && "html".equalsIgnoreCase(customData.getString("format", ""))) {
             PendingIntent deletePendingIntent = PendingIntentFactory.constructPushDeletePendingIntent(context, pushNotificationData);
             PendingIntent contentPendingIntent = PendingIntentFactory.constructPushClickPendingIntent(context, pushNotificationData, pushNotificationData.getPrimeCallToAction(), true);
+            trace.mark(RenderMetrics.Phase.INTENTS);
 
-            Spanned styledTitle = HtmlCompat.fromHtml(pushNotificationData.getTitle(), HtmlCompat.FROM_HTML_MODE_COMPACT);
-            Spanned styledText = HtmlCompat.fromHtml(pushNotificationData.getContentText(), HtmlCompat.FROM_HTML_MODE_COMPACT);
-            Spanned styledBigTitle = HtmlCompat.fromHtml(pushNotificationData.getBigTextStyleData().getBigContentTitle(), HtmlCompat.FROM_HTML_MODE_COMPACT);
-            Spanned styledBigText = HtmlCompat.fromHtml(pushNotificationData.getBigTextStyleData().getBigText(), HtmlCompat.FROM_HTML_MODE_COMPACT);
+            Spanned styledTitle = HtmlSpans.fromHtml(pushNotificationData.getTitle());
+            Spanned styledText = HtmlSpans.fromHtml(pushNotificationData.getContentText());
+            Spanned styledBigTitle = HtmlSpans.fromHtml(pushNotificationData.getBigTextStyleData().getBigContentTitle());
+            Spanned styledBigText = HtmlSpans.fromHtml(pushNotificationData.getBigTextStyleData().getBigText());
 
-            NotificationCompat.Builder builder = new NotificationCompat.Builder(context, MY_CHANNEL_ID)
+            NotificationCompat.Builder builder = new NotificationCompat.Builder(context, getChannelId(context, pushNotificationData))
                     .setSmallIcon(R.mipmap.ic_launcher)
                     .setContentTitle(styledTitle)
                     .setContentText(styledText)
@@ -89,8 +385,7 @@ public class MyPushRenderer implements CustomPushRender, CustomPushRerender {
             }
 
             Notification notification = builder.build();
-            NotificationManagerCompat notificationManager = NotificationManagerCompat.from(context);
-            notificationManager.notify(pushNotificationData.getVariationId().hashCode(), notification);
+            postNotification(context, pushNotificationData, notification, trace);
             Log.d(TAG, "Rendered push notification from application: html styled big text");
             return true;
         }
@@ -99,8 +394,9 @@ public class MyPushRenderer implements CustomPushRender, CustomPushRerender {
         else if (pushNotificationData.getStyle() == WebEngageConstant.STYLE.BIG_TEXT) {
             PendingIntent deletePendingIntent = PendingIntentFactory.constructPushDeletePendingIntent(context, pushNotificationData);
             PendingIntent contentPendingIntent = PendingIntentFactory.constructPushClickPendingIntent(context, pushNotificationData, pushNotificationData.getPrimeCallToAction(), true);
+            trace.mark(RenderMetrics.Phase.INTENTS);
 
-            NotificationCompat.Builder builder = new NotificationCompat.Builder(context, MY_CHANNEL_ID)
+            NotificationCompat.Builder builder = new NotificationCompat.Builder(context, getChannelId(context, pushNotificationData))
                     .setSmallIcon(R.mipmap.ic_launcher)
                     .setContentTitle(pushNotificationData.getTitle())
                     .setContentText(pushNotificationData.getContentText())
@@ -120,22 +416,33 @@ public class MyPushRenderer implements CustomPushRender, CustomPushRerender {
             }
 
             Notification notification = builder.build();
-            NotificationManagerCompat notificationManager = NotificationManagerCompat.from(context);
-            notificationManager.notify(pushNotificationData.getVariationId().hashCode(), notification);
+            postNotification(context, pushNotificationData, notification, trace);
             Log.d(TAG, "Rendered push notification from application: big text");
             return true;
         }
 
         // Big picture
         else if (pushNotificationData.getStyle() == WebEngageConstant.STYLE.BIG_PICTURE) {
-            PendingIntent deletePendingIntent = PendingIntentFactory.constructPushDeletePendingIntent(context, pushNotificationData);
-            PendingIntent contentPendingIntent = PendingIntentFactory.constructPushClickPendingIntent(context, pushNotificationData, pushNotificationData.getPrimeCallToAction(), true);
+            RenderState renderState = RenderState.create(context, pushNotificationData);
+            PendingIntent deletePendingIntent = renderState.getDeletePendingIntent();
+            PendingIntent contentPendingIntent = renderState.getContentPendingIntent();
+            trace.mark(RenderMetrics.Phase.INTENTS);
 
-            RemoteViews collapsedView = new RemoteViews(context.getPackageName(), R.layout.push_collapsed);
-            collapsedView.setTextViewText(R.id.notificationTitle, pushNotificationData.getTitle());
-            collapsedView.setTextViewText(R.id.notificationText, pushNotificationData.getContentText());
+            RemoteViews collapsedView = renderState.getCollapsedView();
 
-            Bitmap bigPicture = DownloadManager.getBitmapFromURL(pushNotificationData.getBigPictureStyleData().getBigPictureUrl(), false);
+            if (progressiveRendering) {
+                postTextOnlyNotification(context, pushNotificationData, collapsedView, contentPendingIntent, deletePendingIntent);
+            }
+
+            int imageWidth = context.getResources().getDisplayMetrics().widthPixels;
+            int imageHeight = context.getResources().getDimensionPixelSize(R.dimen.big_picture_max_height);
+            RenderBudget budget = RenderBudget.start(WebEngageConstant.STYLE.BIG_PICTURE, 1);
+            AssetManifest manifest = AssetManifest.forVariation(pushNotificationData.getVariationId());
+            Bitmap bigPicture = loadImage(pushNotificationData.getBigPictureStyleData().getBigPictureUrl(), imageWidth, imageHeight, budget, manifest, trace);
+            if (bigPicture == null) {
+                bigPicture = PlaceholderProvider.getPlaceholder(context, WebEngageConstant.STYLE.BIG_PICTURE, imageWidth, imageHeight);
+            }
+            trace.mark(RenderMetrics.Phase.FETCH);
 
             RemoteViews bigPictureView = new RemoteViews(context.getPackageName(), R.layout.push_big_picture);
             bigPictureView.setTextViewText(R.id.notificationTitle, pushNotificationData.getBigPictureStyleData().getBigContentTitle());
@@ -144,17 +451,18 @@ public class MyPushRenderer implements CustomPushRender, CustomPushRerender {
 
             if (bigPicture != null) {
                 bigPictureView.setViewVisibility(R.id.big_picture_imageview, View.VISIBLE);
-                bigPictureView.setImageViewBitmap(R.id.big_picture_imageview, bigPicture);
+                bigPictureView.setImageViewBitmap(R.id.big_picture_imageview, PayloadBudget.fit("big picture", bigPicture)[0]);
             } else {
                 bigPictureView.setViewVisibility(R.id.big_picture_imageview, View.GONE);
             }
 
-            NotificationCompat.Builder builder = new NotificationCompat.Builder(context, MY_CHANNEL_ID)
+            NotificationCompat.Builder builder = new NotificationCompat.Builder(context, getChannelId(context, pushNotificationData))
                     .setSmallIcon(R.mipmap.ic_launcher)
                     .setCustomContentView(collapsedView)
                     .setCustomBigContentView(bigPictureView)
                     .setContentIntent(contentPendingIntent)
-                    .setDeleteIntent(deletePendingIntent);
+                    .setDeleteIntent(deletePendingIntent)
+                    .setOnlyAlertOnce(progressiveRendering);
 
             // actions
             List<CallToAction> actionsList = pushNotificationData.getActions();
@@ -187,46 +495,51 @@ public class MyPushRenderer implements CustomPushRender, CustomPushRerender {
             }
 
             Notification notification = builder.build();
-            NotificationManagerCompat notificationManager = NotificationManagerCompat.from(context);
-            notificationManager.notify(pushNotificationData.getVariationId().hashCode(), notification);
+            postNotification(context, pushNotificationData, notification, trace);
             Log.d(TAG, "Rendered push notification from application: big picture");
             return true;
         }
 
         // Carousel
         else if (pushNotificationData.getStyle() == WebEngageConstant.STYLE.CAROUSEL_V1) {
-            if ("landscape".equals(pushNotificationData.getCarouselV1Data().getMODE())) {
-                PendingIntent deletePendingIntent = PendingIntentFactory.constructPushDeletePendingIntent(context, pushNotificationData);
-                PendingIntent contentPendingIntent = PendingIntentFactory.constructPushClickPendingIntent(context, pushNotificationData, pushNotificationData.getPrimeCallToAction(), true);
+            if ("landscape".equals(pushNotificationData.getCarouselV1Data().getMODE()) && flipperCarousel) {
+                return renderFlipperCarousel(context, pushNotificationData, trace);
+            }
+
+            else if ("landscape".equals(pushNotificationData.getCarouselV1Data().getMODE())) {
+                RenderState renderState = RenderState.create(context, pushNotificationData);
+                PendingIntent deletePendingIntent = renderState.getDeletePendingIntent();
+                PendingIntent contentPendingIntent = renderState.getContentPendingIntent();
 
                 long when = System.currentTimeMillis();
 
-                Bundle browseExtraData = new Bundle();
-                browseExtraData.putLong("when", when);
-                PendingIntent leftPendingIntent = PendingIntentFactory.constructCarouselBrowsePendingIntent(context, pushNotificationData, 0, "left", "carousel_left", browseExtraData);
-                PendingIntent rightPendingIntent = PendingIntentFactory.constructCarouselBrowsePendingIntent(context, pushNotificationData, 0, "right", "carousel_right", browseExtraData);
+                PendingIntent leftPendingIntent = getBrowsePendingIntent(context, pushNotificationData, 0, "left", when);
+                PendingIntent rightPendingIntent = getBrowsePendingIntent(context, pushNotificationData, 0, "right", when);
+                trace.mark(RenderMetrics.Phase.INTENTS);
 
-                // Download all images and cache
+                // Download all images in parallel and cache
                 List<CarouselV1CallToAction> ctas = pushNotificationData.getCarouselV1Data().getCallToActions();
-                for (CarouselV1CallToAction cta : ctas) {
-                    DownloadManager.downloadBitmap(cta.getImageURL());
-                }
+                RenderBudget budget = RenderBudget.start(WebEngageConstant.STYLE.CAROUSEL_V1, 1);
+                AssetManifest manifest = AssetManifest.forVariation(pushNotificationData.getVariationId());
+                CarouselV1CallToAction cta = ctas.get(0);
+                List<String> visibleUrls = Collections.singletonList(cta.getImageURL());
+                ImagePrefetcher.Batch prefetchBatch = imagePrefetcher.prefetch(getImageUrls(ctas), visibleUrls, budget, manifest);
 
-                RemoteViews collapsedView = new RemoteViews(context.getPackageName(), R.layout.push_collapsed);
-                collapsedView.setTextViewText(R.id.notificationTitle, pushNotificationData.getTitle());
-                collapsedView.setTextViewText(R.id.notificationText, pushNotificationData.getContentText());
+                RemoteViews collapsedView = renderState.getCollapsedView();
+
+                if (progressiveRendering) {
+                    postTextOnlyNotification(context, pushNotificationData, collapsedView, contentPendingIntent, deletePendingIntent);
+                }
 
-                CarouselV1CallToAction cta = ctas.get(0);
                 PendingIntent imagePendingIntent = PendingIntentFactory.constructPushClickPendingIntent(context, pushNotificationData, cta, false);
 
-                Bitmap img = DownloadManager.getBitmapFromURL(cta.getImageURL(), true);
-                if (img == null) {
-                    img = DownloadManager.getBitmapFromURL(cta.getImageURL(), false);
-                    if (img == null) {
-                        // Use a placeholder image
-                        img = BitmapFactory.decodeResource(context.getResources(), R.drawable.banner_android);
-                    }
-                }
+                // Only wait for the visible image, rest of the images keep downloading in background
+                prefetchBatch.await(visibleUrls);
+                int imageWidth = context.getResources().getDisplayMetrics().widthPixels;
+                int imageHeight = context.getResources().getDimensionPixelSize(R.dimen.carousel_image_height);
+                Bitmap img = getCarouselImage(context, cta.getImageURL(), imageWidth, imageHeight, budget, manifest, trace);
+                img = PayloadBudget.fit("carousel", img)[0];
+                trace.mark(RenderMetrics.Phase.FETCH);
 
                 RemoteViews carouselView = new RemoteViews(context.getPackageName(), R.layout.push_carousel_landscape);
                 carouselView.setTextViewText(R.id.notificationTitle, pushNotificationData.getCarouselV1Data().getBigContentTitle());
@@ -236,41 +549,35 @@ public class MyPushRenderer implements CustomPushRender, CustomPushRerender {
                 carouselView.setOnClickPendingIntent(R.id.left, leftPendingIntent);
                 carouselView.setOnClickPendingIntent(R.id.right, rightPendingIntent);
 
-                Notification notification = new NotificationCompat.Builder(context, MY_CHANNEL_ID)
+                Notification notification = new NotificationCompat.Builder(context, getChannelId(context, pushNotificationData))
                         .setSmallIcon(R.mipmap.ic_launcher)
                         .setCustomContentView(collapsedView)
                         .setCustomBigContentView(carouselView)
                         .setContentIntent(contentPendingIntent)
                         .setDeleteIntent(deletePendingIntent)
+                        .setOnlyAlertOnce(progressiveRendering)
                         .build();
 
-                NotificationManagerCompat notificationManager = NotificationManagerCompat.from(context);
-                notificationManager.notify(pushNotificationData.getVariationId().hashCode(), notification);
+                postNotification(context, pushNotificationData, notification, trace);
                 Log.d(TAG, "Rendered push notification from application: carousel");
                 return true;
             }
 
             else if ("portrait".equals(pushNotificationData.getCarouselV1Data().getMODE())) {
-                PendingIntent deletePendingIntent = PendingIntentFactory.constructPushDeletePendingIntent(context, pushNotificationData);
-                PendingIntent contentPendingIntent = PendingIntentFactory.constructPushClickPendingIntent(context, pushNotificationData, pushNotificationData.getPrimeCallToAction(), true);
+                RenderState renderState = RenderState.create(context, pushNotificationData);
+                PendingIntent deletePendingIntent = renderState.getDeletePendingIntent();
+                PendingIntent contentPendingIntent = renderState.getContentPendingIntent();
 
                 long when = System.currentTimeMillis();
 
-                Bundle browseExtraData = new Bundle();
-                browseExtraData.putLong("when", when);
-                PendingIntent leftPendingIntent = PendingIntentFactory.constructCarouselBrowsePendingIntent(context, pushNotificationData, 0, "left", "carousel_left", browseExtraData);
-                PendingIntent rightPendingIntent = PendingIntentFactory.constructCarouselBrowsePendingIntent(context, pushNotificationData, 0, "right", "carousel_right", browseExtraData);
+                PendingIntent leftPendingIntent = getBrowsePendingIntent(context, pushNotificationData, 0, "left", when);
+                PendingIntent rightPendingIntent = getBrowsePendingIntent(context, pushNotificationData, 0, "right", when);
+                trace.mark(RenderMetrics.Phase.INTENTS);
 
-                // Download all images and cache
+                // Download all images in parallel and cache
                 List<CarouselV1CallToAction> ctaList = pushNotificationData.getCarouselV1Data().getCallToActions();
-                for (CarouselV1CallToAction cta : ctaList) {
-                    DownloadManager.downloadBitmap(cta.getImageURL());
-                }
-
-                RemoteViews collapsedView = new RemoteViews(context.getPackageName(), R.layout.push_collapsed);
-                collapsedView.setTextViewText(R.id.notificationTitle, pushNotificationData.getTitle());
-                collapsedView.setTextViewText(R.id.notificationText, pushNotificationData.getContentText());
-
+                RenderBudget budget = RenderBudget.start(WebEngageConstant.STYLE.CAROUSEL_V1, 3);
+                AssetManifest manifest = AssetManifest.forVariation(pushNotificationData.getVariationId());
                 int size = ctaList.size();
                 int curr = 0;
                 int right = (curr + 1) % size;
@@ -279,33 +586,28 @@ public class MyPushRenderer implements CustomPushRender, CustomPushRerender {
                 CarouselV1CallToAction currCta = ctaList.get(curr);
                 CarouselV1CallToAction leftCta = ctaList.get(left);
                 CarouselV1CallToAction rightCta = ctaList.get(right);
+                List<String> visibleUrls = Arrays.asList(leftCta.getImageURL(), currCta.getImageURL(), rightCta.getImageURL());
+                ImagePrefetcher.Batch prefetchBatch = imagePrefetcher.prefetch(getImageUrls(ctaList), visibleUrls, budget, manifest);
 
-                Bitmap leftImg = DownloadManager.getBitmapFromURL(leftCta.getImageURL(), true);
-                if (leftImg == null) {
-                    leftImg = DownloadManager.getBitmapFromURL(leftCta.getImageURL(), false);
-                    if (leftImg == null) {
-                        // Image could not be downloaded. Set a placeholder image
-                        leftImg = BitmapFactory.decodeResource(context.getResources(), R.drawable.banner_android);
-                    }
-                }
+                RemoteViews collapsedView = renderState.getCollapsedView();
 
-                Bitmap rightImg = DownloadManager.getBitmapFromURL(rightCta.getImageURL(), true);
-                if (rightImg == null) {
-                    rightImg = DownloadManager.getBitmapFromURL(rightCta.getImageURL(), false);
-                    if (rightImg == null) {
-                        // Image could not be downloaded. Set a placeholder image
-                        rightImg = BitmapFactory.decodeResource(context.getResources(), R.drawable.banner_android);
-                    }
+                if (progressiveRendering) {
+                    postTextOnlyNotification(context, pushNotificationData, collapsedView, contentPendingIntent, deletePendingIntent);
                 }
 
-                Bitmap currImg = DownloadManager.getBitmapFromURL(currCta.getImageURL(), true);
-                if (currImg == null) {
-                    currImg = DownloadManager.getBitmapFromURL(currCta.getImageURL(), false);
-                    if (currImg == null) {
-                        // Image could not be downloaded. Set a placeholder image
-                        currImg = BitmapFactory.decodeResource(context.getResources(), R.drawable.banner_android);
-                    }
-                }
+                // Only wait for the visible images, rest of the images keep downloading in background
+                prefetchBatch.await(visibleUrls);
+
+                int imageWidth = context.getResources().getDimensionPixelSize(R.dimen.carousel_portrait_image_width);
+                int imageHeight = context.getResources().getDimensionPixelSize(R.dimen.carousel_image_height);
+                Bitmap leftImg = getCarouselImage(context, leftCta.getImageURL(), imageWidth, imageHeight, budget, manifest, trace);
+                Bitmap rightImg = getCarouselImage(context, rightCta.getImageURL(), imageWidth, imageHeight, budget, manifest, trace);
+                Bitmap currImg = getCarouselImage(context, currCta.getImageURL(), imageWidth, imageHeight, budget, manifest, trace);
+                Bitmap[] imgs = PayloadBudget.fit("portrait carousel", leftImg, currImg, rightImg);
+                leftImg = imgs[0];
+                currImg = imgs[1];
+                rightImg = imgs[2];
+                trace.mark(RenderMetrics.Phase.FETCH);
 
                 PendingIntent currImagePendingIntent = PendingIntentFactory.constructPushClickPendingIntent(context, pushNotificationData, currCta, false);
 
@@ -319,16 +621,16 @@ public class MyPushRenderer implements CustomPushRender, CustomPushRerender {
                 carouselView.setOnClickPendingIntent(R.id.left, leftPendingIntent);
                 carouselView.setOnClickPendingIntent(R.id.right, rightPendingIntent);
 
-                Notification notification = new NotificationCompat.Builder(context, MY_CHANNEL_ID)
+                Notification notification = new NotificationCompat.Builder(context, getChannelId(context, pushNotificationData))
                         .setSmallIcon(R.mipmap.ic_launcher)
                         .setCustomContentView(collapsedView)
                         .setCustomBigContentView(carouselView)
                         .setContentIntent(contentPendingIntent)
                         .setDeleteIntent(deletePendingIntent)
+                        .setOnlyAlertOnce(progressiveRendering)
                         .build();
 
-                NotificationManagerCompat notificationManager = NotificationManagerCompat.from(context);
-                notificationManager.notify(pushNotificationData.getVariationId().hashCode(), notification);
+                postNotification(context, pushNotificationData, notification, trace);
                 Log.d(TAG, "Rendered push notification from application: portrait carousel");
                 return true;
             }
@@ -336,62 +638,33 @@ public class MyPushRenderer implements CustomPushRender, CustomPushRerender {
 
         // Rating
         else if (pushNotificationData.getStyle() == WebEngageConstant.STYLE.RATING_V1) {
-            PendingIntent deletePendingIntent = PendingIntentFactory.constructPushDeletePendingIntent(context, pushNotificationData);
-            PendingIntent contentPendingIntent = PendingIntentFactory.constructPushClickPendingIntent(context, pushNotificationData, pushNotificationData.getPrimeCallToAction(), true);
-
+            RenderState renderState = RenderState.create(context, pushNotificationData);
+            PendingIntent deletePendingIntent = renderState.getDeletePendingIntent();
+            PendingIntent contentPendingIntent = renderState.getContentPendingIntent();
             long when = System.currentTimeMillis();
+            PendingIntent[] rateClickPendingIntents = getRateClickPendingIntents(context, pushNotificationData, renderState, when);
+            trace.mark(RenderMetrics.Phase.INTENTS);
 
-            RemoteViews collapsedView = new RemoteViews(context.getPackageName(), R.layout.push_collapsed);
-            collapsedView.setTextViewText(R.id.notificationTitle, pushNotificationData.getTitle());
-            collapsedView.setTextViewText(R.id.notificationText, pushNotificationData.getContentText());
-
-            RemoteViews npsView = new RemoteViews(context.getPackageName(), R.layout.push_rating);
-            npsView.setTextViewText(R.id.notificationTitle, pushNotificationData.getRatingV1().getBigContentTitle());
-            npsView.setTextViewText(R.id.notificationText, pushNotificationData.getRatingV1().getSummary());
+            RemoteViews collapsedView = renderState.getCollapsedView();
 
-            if (pushNotificationData.getRatingV1().getImageUrl() != null) {
-                Bitmap img = DownloadManager.getBitmapFromURL(pushNotificationData.getRatingV1().getImageUrl(), false);
-                npsView.setViewVisibility(R.id.rate_frame, View.VISIBLE);
-                if (img != null) {
-                    npsView.setViewVisibility(R.id.rate_image, View.VISIBLE);
-                    npsView.setImageViewBitmap(R.id.rate_image, img);
-                } else {
-                    npsView.setInt(R.id.rate_frame, "setBackgroundColor", pushNotificationData.getRatingV1().getContentBackgroundColor());
-                }
+            if (progressiveRendering && pushNotificationData.getRatingV1().getImageUrl() != null) {
+                postTextOnlyNotification(context, pushNotificationData, collapsedView, contentPendingIntent, deletePendingIntent);
             }
 
-            if (pushNotificationData.getRatingV1().getContentTitle() != null) {
-                npsView.setViewVisibility(R.id.rate_frame, View.VISIBLE);
-                npsView.setViewVisibility(R.id.rate_title, View.VISIBLE);
-                npsView.setTextViewText(R.id.rate_title, pushNotificationData.getRatingV1().getContentTitle());
-            }
-
-            if (pushNotificationData.getRatingV1().getContentMessage() != null) {
-                npsView.setViewVisibility(R.id.rate_frame, View.VISIBLE);
-                npsView.setViewVisibility(R.id.rate_message, View.VISIBLE);
-                npsView.setTextViewText(R.id.rate_message, pushNotificationData.getRatingV1().getContentMessage());
-            }
-
-            for (int i = 1; i <= 5; i++) {
-                Bundle rateClickExtraData = new Bundle();
-                rateClickExtraData.putInt("current", i);
-                rateClickExtraData.putLong("when", when);
-                final PendingIntent rateClickPendingIntent = PendingIntentFactory.constructRerenderPendingIntent(context, pushNotificationData, "rate_click_" + i, rateClickExtraData);
-
-                int id = context.getResources().getIdentifier("rate_" + i, "id", context.getPackageName());
-                npsView.setOnClickPendingIntent(id, rateClickPendingIntent);
-            }
+            RemoteViews npsView = buildRatingView(context, pushNotificationData, rateClickPendingIntents, trace);
+            // Star taps start from a copy of this view, so keep it unchanged
+            renderState.putTemplate(RATING_TEMPLATE, copyRemoteViews(npsView));
 
-            NotificationCompat.Builder builder = new NotificationCompat.Builder(context, MY_CHANNEL_ID)
+            NotificationCompat.Builder builder = new NotificationCompat.Builder(context, getChannelId(context, pushNotificationData))
                     .setSmallIcon(R.mipmap.ic_launcher)
                     .setCustomContentView(collapsedView)
                     .setCustomBigContentView(npsView)
                     .setContentIntent(contentPendingIntent)
-                    .setDeleteIntent(deletePendingIntent);
+                    .setDeleteIntent(deletePendingIntent)
+                    .setOnlyAlertOnce(progressiveRendering);
 
             Notification notification = builder.build();
-            NotificationManagerCompat notificationManager = NotificationManagerCompat.from(context);
-            notificationManager.notify(pushNotificationData.getVariationId().hashCode(), notification);
+            postNotification(context, pushNotificationData, notification, trace);
             Log.d(TAG, "Rendered push notification from application: rating");
             return true;
         }
@@ -401,10 +674,15 @@ public class MyPushRenderer implements CustomPushRender, CustomPushRerender {
 
     @Override
     public boolean onRerender(Context context, PushNotificationData pushNotificationData, Bundle bundle) {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            createNotificationChannel(context, MY_CHANNEL_ID, MY_CHANNEL_NAME, NotificationManager.IMPORTANCE_DEFAULT);
+        RenderMetrics.Trace trace = RenderMetrics.begin(getMetricsStyle(pushNotificationData, true));
+        boolean rendered = rerender(context, pushNotificationData, bundle, trace);
+        if (rendered) {
+            trace.end();
         }
+        return rendered;
+    }
 
+    private boolean rerender(Context context, PushNotificationData pushNotificationData, Bundle bundle, RenderMetrics.Trace trace) {
         Bundle customData = pushNotificationData.getCustomData();
         Log.d(TAG, "custom data: " + String.valueOf(customData) + ", extra data: " + String.valueOf(bundle));
 
@@ -423,29 +701,29 @@ public class MyPushRenderer implements CustomPushRender, CustomPushRerender {
                     newIndex = (prevIndex - 1 + size) % size;
                 }
 
-                PendingIntent deletePendingIntent = PendingIntentFactory.constructPushDeletePendingIntent(context, pushNotificationData);
-                PendingIntent contentPendingIntent = PendingIntentFactory.constructPushClickPendingIntent(context, pushNotificationData, pushNotificationData.getPrimeCallToAction(), true);
+                RenderState renderState = RenderState.get(context, pushNotificationData);
+                PendingIntent deletePendingIntent = renderState.getDeletePendingIntent();
+                PendingIntent contentPendingIntent = renderState.getContentPendingIntent();
 
-                Bundle browseExtraData = new Bundle();
-                browseExtraData.putLong("when", when);
-                PendingIntent leftPendingIntent = PendingIntentFactory.constructCarouselBrowsePendingIntent(context, pushNotificationData, newIndex, "left", "carousel_left", browseExtraData);
-                PendingIntent rightPendingIntent = PendingIntentFactory.constructCarouselBrowsePendingIntent(context, pushNotificationData, newIndex, "right", "carousel_right", browseExtraData);
+                PendingIntent leftPendingIntent = getBrowsePendingIntent(context, pushNotificationData, newIndex, "left", when);
+                PendingIntent rightPendingIntent = getBrowsePendingIntent(context, pushNotificationData, newIndex, "right", when);
 
                 CarouselV1CallToAction cta = callToActionList.get(newIndex);
                 PendingIntent imagePendingIntent = PendingIntentFactory.constructPushClickPendingIntent(context, pushNotificationData, cta, false);
+                trace.mark(RenderMetrics.Phase.INTENTS);
 
-                Bitmap img = DownloadManager.getBitmapFromURL(cta.getImageURL(), true);
-                if (img == null) {
-                    img = DownloadManager.getBitmapFromURL(cta.getImageURL(), false);
-                    if (img == null) {
-                        // Use a default/placeholder image
-                        img = BitmapFactory.decodeResource(context.getResources(), R.drawable.banner_android);
-                    }
-                }
+                RenderBudget budget = RenderBudget.start(WebEngageConstant.STYLE.CAROUSEL_V1, 1);
+                AssetManifest manifest = AssetManifest.forVariation(pushNotificationData.getVariationId());
+                int imageWidth = context.getResources().getDisplayMetrics().widthPixels;
+                int imageHeight = context.getResources().getDimensionPixelSize(R.dimen.carousel_image_height);
+                Bitmap img = getCarouselImage(context, cta.getImageURL(), imageWidth, imageHeight, budget, manifest, trace);
+                img = PayloadBudget.fit("carousel", img)[0];
+                trace.mark(RenderMetrics.Phase.FETCH);
 
-                RemoteViews collapsedView = new RemoteViews(context.getPackageName(), R.layout.push_collapsed);
-                collapsedView.setTextViewText(R.id.notificationTitle, pushNotificationData.getTitle());
-                collapsedView.setTextViewText(R.id.notificationText, pushNotificationData.getContentText());
+                // Warm up the next frames so that the next tap in the same direction renders from memory
+                imagePrefetcher.preload(getNeighborUrls(callToActionList, newIndex, navigation, NEIGHBOR_PREFETCH_COUNT), imageWidth, imageHeight);
+
+                RemoteViews collapsedView = renderState.getCollapsedView();
 
                 RemoteViews carouselView = new RemoteViews(context.getPackageName(), R.layout.push_carousel_landscape);
                 carouselView.setTextViewText(R.id.notificationTitle, pushNotificationData.getCarouselV1Data().getBigContentTitle());
@@ -455,7 +733,7 @@ public class MyPushRenderer implements CustomPushRender, CustomPushRerender {
                 carouselView.setOnClickPendingIntent(R.id.left, leftPendingIntent);
                 carouselView.setOnClickPendingIntent(R.id.right, rightPendingIntent);
 
-                Notification notification = new NotificationCompat.Builder(context, MY_CHANNEL_ID)
+                Notification notification = new NotificationCompat.Builder(context, getChannelId(context, pushNotificationData))
                         .setSmallIcon(R.mipmap.ic_launcher)
                         .setCustomContentView(collapsedView)
                         .setCustomBigContentView(carouselView)
@@ -467,21 +745,20 @@ public class MyPushRenderer implements CustomPushRender, CustomPushRerender {
                 notification.flags |= Notification.FLAG_AUTO_CANCEL;
                 notification.flags |= Notification.FLAG_ONLY_ALERT_ONCE;
 
-                NotificationManagerCompat notificationManager = NotificationManagerCompat.from(context);
-                notificationManager.notify(pushNotificationData.getVariationId().hashCode(), notification);
+                postNotification(context, pushNotificationData, notification, trace);
                 Log.d(TAG, "Re-rendered push notification: carousel");
                 return true;
             }
 
             else if ("portrait".equals(pushNotificationData.getCarouselV1Data().getMODE())) {
-                PendingIntent deletePendingIntent = PendingIntentFactory.constructPushDeletePendingIntent(context, pushNotificationData);
-                PendingIntent contentPendingIntent = PendingIntentFactory.constructPushClickPendingIntent(context, pushNotificationData, pushNotificationData.getPrimeCallToAction(), true);
+                RenderState renderState = RenderState.get(context, pushNotificationData);
+                PendingIntent deletePendingIntent = renderState.getDeletePendingIntent();
+                PendingIntent contentPendingIntent = renderState.getContentPendingIntent();
 
-                // Download all images and cache
+                // Download all images in parallel and cache
                 List<CarouselV1CallToAction> ctaList = pushNotificationData.getCarouselV1Data().getCallToActions();
-                for (CarouselV1CallToAction cta : ctaList) {
-                    DownloadManager.downloadBitmap(cta.getImageURL());
-                }
+                RenderBudget budget = RenderBudget.start(WebEngageConstant.STYLE.CAROUSEL_V1, 3);
+                AssetManifest manifest = AssetManifest.forVariation(pushNotificationData.getVariationId());
 
                 long when = bundle.getLong("when");
                 int prevIndex = bundle.getInt("current");
@@ -497,46 +774,36 @@ public class MyPushRenderer implements CustomPushRender, CustomPushRerender {
                 int right = (curr + 1) % size;
                 int left = (curr - 1 + size) % size;
 
-                Bundle browseExtraData = new Bundle();
-                browseExtraData.putLong("when", when);
-
-                PendingIntent leftPendingIntent = PendingIntentFactory.constructCarouselBrowsePendingIntent(context, pushNotificationData, curr, "left", "carousel_left", browseExtraData);
-                PendingIntent rightPendingIntent = PendingIntentFactory.constructCarouselBrowsePendingIntent(context, pushNotificationData, curr, "right", "carousel_right", browseExtraData);
-
-                RemoteViews collapsedView = new RemoteViews(context.getPackageName(), R.layout.push_collapsed);
-                collapsedView.setTextViewText(R.id.notificationTitle, pushNotificationData.getTitle());
-                collapsedView.setTextViewText(R.id.notificationText, pushNotificationData.getContentText());
-
                 CarouselV1CallToAction currCta = ctaList.get(curr);
                 CarouselV1CallToAction leftCta = ctaList.get(left);
                 CarouselV1CallToAction rightCta = ctaList.get(right);
-
-                Bitmap leftImg = DownloadManager.getBitmapFromURL(leftCta.getImageURL(), true);
-                if (leftImg == null) {
-                    leftImg = DownloadManager.getBitmapFromURL(leftCta.getImageURL(), false);
-                    if (leftImg == null) {
-                        // Image could not be downloaded. Set a placeholder image
-                        leftImg = BitmapFactory.decodeResource(context.getResources(), R.drawable.banner_android);
-                    }
-                }
-
-                Bitmap rightImg = DownloadManager.getBitmapFromURL(rightCta.getImageURL(), true);
-                if (rightImg == null) {
-                    rightImg = DownloadManager.getBitmapFromURL(rightCta.getImageURL(), false);
-                    if (rightImg == null) {
-                        // Image could not be downloaded. Set a placeholder image
-                        rightImg = BitmapFactory.decodeResource(context.getResources(), R.drawable.banner_android);
-                    }
-                }
-
-                Bitmap currImg = DownloadManager.getBitmapFromURL(currCta.getImageURL(), true);
-                if (currImg == null) {
-                    currImg = DownloadManager.getBitmapFromURL(currCta.getImageURL(), false);
-                    if (currImg == null) {
-                        // Image could not be downloaded. Set a placeholder image
-                        currImg = BitmapFactory.decodeResource(context.getResources(), R.drawable.banner_android);
-                    }
-                }
+                List<String> visibleUrls = Arrays.asList(leftCta.getImageURL(), currCta.getImageURL(), rightCta.getImageURL());
+                // Only download the images which were not loaded for this notification yet
+                ImagePrefetcher.Batch prefetchBatch = imagePrefetcher.prefetch(manifest.getMissing(getImageUrls(ctaList)), visibleUrls, budget, manifest);
+
+                PendingIntent leftPendingIntent = getBrowsePendingIntent(context, pushNotificationData, curr, "left", when);
+                PendingIntent rightPendingIntent = getBrowsePendingIntent(context, pushNotificationData, curr, "right", when);
+                trace.mark(RenderMetrics.Phase.INTENTS);
+
+                RemoteViews collapsedView = renderState.getCollapsedView();
+
+                // Only wait for the visible images, rest of the images keep downloading in background
+                prefetchBatch.await(visibleUrls);
+
+                int imageWidth = context.getResources().getDimensionPixelSize(R.dimen.carousel_portrait_image_width);
+                int imageHeight = context.getResources().getDimensionPixelSize(R.dimen.carousel_image_height);
+                Bitmap leftImg = getCarouselImage(context, leftCta.getImageURL(), imageWidth, imageHeight, budget, manifest, trace);
+                Bitmap rightImg = getCarouselImage(context, rightCta.getImageURL(), imageWidth, imageHeight, budget, manifest, trace);
+                Bitmap currImg = getCarouselImage(context, currCta.getImageURL(), imageWidth, imageHeight, budget, manifest, trace);
+                Bitmap[] imgs = PayloadBudget.fit("portrait carousel", leftImg, currImg, rightImg);
+                leftImg = imgs[0];
+                currImg = imgs[1];
+                rightImg = imgs[2];
+                trace.mark(RenderMetrics.Phase.FETCH);
+
+                // Warm up the frames that become visible with the next tap in the same direction
+                int nextEdge = "left".equals(navigation) ? left : right;
+                imagePrefetcher.preload(getNeighborUrls(ctaList, nextEdge, navigation, NEIGHBOR_PREFETCH_COUNT), imageWidth, imageHeight);
 
                 PendingIntent currImagePendingIntent = PendingIntentFactory.constructPushClickPendingIntent(context, pushNotificationData, currCta, false);
 
@@ -550,7 +817,7 @@ public class MyPushRenderer implements CustomPushRender, CustomPushRerender {
                 carouselView.setOnClickPendingIntent(R.id.left, leftPendingIntent);
                 carouselView.setOnClickPendingIntent(R.id.right, rightPendingIntent);
 
-                Notification notification = new NotificationCompat.Builder(context, MY_CHANNEL_ID)
+                Notification notification = new NotificationCompat.Builder(context, getChannelId(context, pushNotificationData))
                         .setSmallIcon(R.mipmap.ic_launcher)
                         .setCustomContentView(collapsedView)
                         .setCustomBigContentView(carouselView)
@@ -561,8 +828,7 @@ public class MyPushRenderer implements CustomPushRender, CustomPushRerender {
                 notification.flags |= Notification.FLAG_AUTO_CANCEL;
                 notification.flags |= Notification.FLAG_ONLY_ALERT_ONCE;
 
-                NotificationManagerCompat notificationManager = NotificationManagerCompat.from(context);
-                notificationManager.notify(pushNotificationData.getVariationId().hashCode(), notification);
+                postNotification(context, pushNotificationData, notification, trace);
                 Log.d(TAG, "Re-rendered push notification from application: portrait carousel");
                 return true;
             }
@@ -570,64 +836,36 @@ public class MyPushRenderer implements CustomPushRender, CustomPushRerender {
 
         // Rating
         else if (pushNotificationData.getStyle() == WebEngageConstant.STYLE.RATING_V1) {
+            long start = System.nanoTime();
             int currIndex = bundle.getInt("current");
             long when = bundle.getLong("when");
 
-            RemoteViews collapsedView = new RemoteViews(context.getPackageName(), R.layout.push_collapsed);
-            collapsedView.setTextViewText(R.id.notificationTitle, pushNotificationData.getTitle());
-            collapsedView.setTextViewText(R.id.notificationText, pushNotificationData.getContentText());
-
-            RemoteViews npsView = new RemoteViews(context.getPackageName(), R.layout.push_rating);
-            npsView.setTextViewText(R.id.notificationTitle, pushNotificationData.getRatingV1().getBigContentTitle());
-            npsView.setTextViewText(R.id.notificationText, pushNotificationData.getRatingV1().getSummary());
-
-            if (pushNotificationData.getRatingV1().getImageUrl() != null) {
-                Bitmap img = DownloadManager.getBitmapFromURL(pushNotificationData.getRatingV1().getImageUrl(), false);
-                npsView.setViewVisibility(R.id.rate_frame, View.VISIBLE);
-                if (img != null) {
-                    npsView.setViewVisibility(R.id.rate_image, View.VISIBLE);
-                    npsView.setImageViewBitmap(R.id.rate_image, img);
-                } else {
-                    npsView.setInt(R.id.rate_frame, "setBackgroundColor", pushNotificationData.getRatingV1().getContentBackgroundColor());
-                }
-            }
-
-            if (pushNotificationData.getRatingV1().getContentTitle() != null) {
-                npsView.setViewVisibility(R.id.rate_frame, View.VISIBLE);
-                npsView.setViewVisibility(R.id.rate_title, View.VISIBLE);
-                npsView.setTextViewText(R.id.rate_title, pushNotificationData.getRatingV1().getContentTitle());
-            }
+            RenderState renderState = RenderState.get(context, pushNotificationData);
+            PendingIntent deletePendingIntent = renderState.getDeletePendingIntent();
+            PendingIntent contentPendingIntent = renderState.getContentPendingIntent();
+            RemoteViews collapsedView = renderState.getCollapsedView();
 
-            if (pushNotificationData.getRatingV1().getContentMessage() != null) {
-                npsView.setViewVisibility(R.id.rate_frame, View.VISIBLE);
-                npsView.setViewVisibility(R.id.rate_message, View.VISIBLE);
-                npsView.setTextViewText(R.id.rate_message, pushNotificationData.getRatingV1().getContentMessage());
+            // Built on every tap like the browse intents, a kept submit intent could carry the rating of another tap
+            PendingIntent rateSubmitPendingIntent = PendingIntentFactory.constructPushRatingSubmitPendingIntent(context, pushNotificationData, currIndex);
+            // Everything but the stars and the submit action is the same on every tap, so start from the rendered view
+            RemoteViews template = renderState.getTemplate(RATING_TEMPLATE);
+            PendingIntent[] rateClickPendingIntents = template == null
+                    ? getRateClickPendingIntents(context, pushNotificationData, renderState, when) : null;
+            trace.mark(RenderMetrics.Phase.INTENTS);
+
+            if (template == null) {
+                template = buildRatingView(context, pushNotificationData, rateClickPendingIntents, trace);
+                renderState.putTemplate(RATING_TEMPLATE, template);
             }
+            RemoteViews npsView = copyRemoteViews(template);
 
-            for (int i = 1; i <= 5; i++) {
-                Bundle rateClickExtraData = new Bundle();
-                rateClickExtraData.putInt("current", i);
-                rateClickExtraData.putLong("when", when);
-                PendingIntent rateClickPendingIntent = PendingIntentFactory.constructRerenderPendingIntent(context, pushNotificationData, "rate_click_" + i, rateClickExtraData);
-
-                int id = context.getResources().getIdentifier("rate_" + i, "id", context.getPackageName());
-                npsView.setOnClickPendingIntent(id, rateClickPendingIntent);
-
+            for (int i = 1; i <= RATE_IDS.length; i++) {
                 // Here you can use any resource for selected and unselected ratings
-                if (i <= currIndex) {
-                    npsView.setImageViewResource(id, R.drawable.star_selected);
-                } else {
-                    npsView.setImageViewResource(id, R.drawable.star_unselected);
-                }
+                npsView.setImageViewResource(RATE_IDS[i - 1], i <= currIndex ? R.drawable.star_selected : R.drawable.star_unselected);
             }
-
-            PendingIntent rateSubmitPendingIntent = PendingIntentFactory.constructPushRatingSubmitPendingIntent(context, pushNotificationData, currIndex);
             npsView.setOnClickPendingIntent(R.id.rate_submit, rateSubmitPendingIntent);
 
-            PendingIntent deletePendingIntent = PendingIntentFactory.constructPushDeletePendingIntent(context, pushNotificationData);
-            PendingIntent contentPendingIntent = PendingIntentFactory.constructPushClickPendingIntent(context, pushNotificationData, pushNotificationData.getPrimeCallToAction(), true);
-
-            NotificationCompat.Builder builder = new NotificationCompat.Builder(context, MY_CHANNEL_ID)
+            NotificationCompat.Builder builder = new NotificationCompat.Builder(context, getChannelId(context, pushNotificationData))
                     .setSmallIcon(R.mipmap.ic_launcher)
                     .setCustomContentView(collapsedView)
                     .setCustomBigContentView(npsView)
@@ -638,12 +876,48 @@ public class MyPushRenderer implements CustomPushRender, CustomPushRerender {
             notification.flags |= Notification.FLAG_AUTO_CANCEL;
             notification.flags |= Notification.FLAG_ONLY_ALERT_ONCE;
 
-            NotificationManagerCompat notificationManager = NotificationManagerCompat.from(context);
-            notificationManager.notify(pushNotificationData.getVariationId().hashCode(), notification);
-            Log.d(TAG, "Re-rendered push notification: rating");
+            postNotification(context, pushNotificationData, notification, trace);
+            Log.d(TAG, "Re-rendered push notification: rating in " + (System.nanoTime() - start) / 1000 + " us");
             return true;
         }
 
         return false;
     }
+
+    @Override
+    public PushNotificationData onPushNotificationReceived(Context context, PushNotificationData pushNotificationData) {
+        return pushNotificationData;
+    }
+
+    @Override
+    public void onPushNotificationShown(Context context, PushNotificationData pushNotificationData) {
+    }
+
+    @Override
+    public boolean onPushNotificationClicked(Context context, PushNotificationData pushNotificationData) {
+        onNotificationClosed(context, pushNotificationData);
+        return false;
+    }
+
+    @Override
+    public void onPushNotificationDismissed(Context context, PushNotificationData pushNotificationData) {
+        onNotificationClosed(context, pushNotificationData);
+    }
+
+    @Override
+    public boolean onPushNotificationActionClicked(Context context, PushNotificationData pushNotificationData, String buttonId) {
+        onNotificationClosed(context, pushNotificationData);
+        return false;
+    }
+
+    /**
+     * Called once the user dismissed the notification or the SDK cancelled it after a click.
+     */
+    private static void onNotificationClosed(Context context, PushNotificationData pushNotificationData) {
+        // A render still waiting for the rate limit would otherwise bring the notification back
+        NotificationPoster.getInstance(context).dropPending(getNotificationId(context, pushNotificationData));
+        // No rerender follows, so what was fetched and built for the notification is not needed any more
+        AssetManifest.remove(pushNotificationData.getVariationId());
+        RenderState.remove(pushNotificationData.getVariationId());
+    }
 }
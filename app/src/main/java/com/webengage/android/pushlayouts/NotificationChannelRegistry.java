@@ -0,0 +1,155 @@
+package com.webengage.android.pushlayouts;
+
+import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.os.Build;
+import android.os.Bundle;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Notification channels used by the app. The channels which already exist are looked up once, and the missing ones are
+ * created together in one batch, so picking a channel during a render needs no call to the system server.
+ *
+ * A push picks its channel with the "channel" key of its custom data, or else with the "priority" key, which can be
+ * "high" or "low". All other pushes go to the default channel.
+ */
+public class NotificationChannelRegistry {
+    private static final String TAG = NotificationChannelRegistry.class.getSimpleName();
+
+    public static final String DEFAULT_CHANNEL_ID = "test-channel-id";
+    public static final String HIGH_PRIORITY_CHANNEL_ID = "high-priority-channel-id";
+    public static final String LOW_PRIORITY_CHANNEL_ID = "low-priority-channel-id";
+
+    private static final String CHANNEL_KEY = "channel";
+    private static final String PRIORITY_KEY = "priority";
+
+    private static volatile NotificationChannelRegistry instance;
+
+    private final Context context;
+    private final Map<String, ChannelSpec> channels = new LinkedHashMap<>();
+    private boolean synced;
+
+    private static class ChannelSpec {
+        final String name;
+        final int importance;
+
+        ChannelSpec(String name, int importance) {
+            this.name = name;
+            this.importance = importance;
+        }
+    }
+
+    // The importance constants are inlined at compile time, so they are safe to use before API 24
+    @SuppressLint("InlinedApi")
+    private NotificationChannelRegistry(Context context) {
+        this.context = context;
+        channels.put(DEFAULT_CHANNEL_ID, new ChannelSpec("test-channel", NotificationManager.IMPORTANCE_DEFAULT));
+        channels.put(HIGH_PRIORITY_CHANNEL_ID, new ChannelSpec("Important", NotificationManager.IMPORTANCE_HIGH));
+        channels.put(LOW_PRIORITY_CHANNEL_ID, new ChannelSpec("Updates", NotificationManager.IMPORTANCE_LOW));
+    }
+
+    public static NotificationChannelRegistry getInstance(Context context) {
+        if (instance == null) {
+            synchronized (NotificationChannelRegistry.class) {
+                if (instance == null) {
+                    instance = new NotificationChannelRegistry(context.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Adds a channel which pushes can pick through their custom data. It is created with the next sync.
+     *
+     * @param importance one of the NotificationManager importance constants
+     */
+    public synchronized void register(String channelId, String name, int importance) {
+        channels.put(channelId, new ChannelSpec(name, importance));
+        synced = false;
+    }
+
+    /**
+     * Syncs the channels on a background thread, so that the first render does not have to.
+     */
+    public void syncAsync() {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                sync();
+            }
+        }, "notification-channels");
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        thread.start();
+    }
+
+    /**
+     * Looks up the existing channels once and creates all the missing channels in one batch. Does nothing once the
+     * channels are in sync.
+     */
+    @TargetApi(Build.VERSION_CODES.O)
+    public synchronized void sync() {
+        if (synced) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            synced = true;
+            return;
+        }
+        NotificationManager notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        if (notificationManager == null) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        Set<String> created = new HashSet<>();
+        for (NotificationChannel channel : notificationManager.getNotificationChannels()) {
+            created.add(channel.getId());
+        }
+        List<NotificationChannel> missing = new ArrayList<>();
+        for (Map.Entry<String, ChannelSpec> entry : channels.entrySet()) {
+            if (!created.contains(entry.getKey())) {
+                missing.add(new NotificationChannel(entry.getKey(), entry.getValue().name, entry.getValue().importance));
+            }
+        }
+        if (!missing.isEmpty()) {
+            notificationManager.createNotificationChannels(missing);
+        }
+        synced = true;
+        Log.d(TAG, "Synced channels, created " + missing.size() + " in " + (System.nanoTime() - start) / 1000 + " us");
+    }
+
+    /**
+     * @return id of the channel for a push with the given custom data
+     */
+    public String getChannelId(Bundle customData) {
+        sync();
+        String channelId = DEFAULT_CHANNEL_ID;
+        if (customData != null) {
+            String requested = customData.getString(CHANNEL_KEY);
+            String priority = customData.getString(PRIORITY_KEY);
+            if (requested != null && isRegistered(requested)) {
+                channelId = requested;
+            } else if ("high".equalsIgnoreCase(priority)) {
+                channelId = HIGH_PRIORITY_CHANNEL_ID;
+            } else if ("low".equalsIgnoreCase(priority)) {
+                channelId = LOW_PRIORITY_CHANNEL_ID;
+            }
+        }
+        return channelId;
+    }
+
+    private synchronized boolean isRegistered(String channelId) {
+        return channels.containsKey(channelId);
+    }
+}
@@ -0,0 +1,136 @@
+package com.webengage.android.pushlayouts;
+
+import android.app.Notification;
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.support.v4.app.NotificationManagerCompat;
+import android.util.Log;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Posts notifications at a pace the system accepts. The notification manager drops updates from an app which posts
+ * more than a few per second, which happens when a burst of pushes is rendered together. Posts are paced with a token
+ * bucket, and a queued post is replaced by a newer post for the same notification id, so only the latest version of
+ * each notification is sent.
+ */
+public class NotificationPoster {
+    private static final String TAG = NotificationPoster.class.getSimpleName();
+
+    // Stays below the system limit of 5 notification updates per second for an app
+    public static final int DEFAULT_POSTS_PER_SECOND = 4;
+
+    private static volatile NotificationPoster instance;
+
+    private final NotificationManagerCompat notificationManager;
+    private final Handler handler;
+    private final double tokensPerMs;
+    private final int maxTokens;
+
+    // Ordered by first post, so each notification keeps its place in the queue when it is updated
+    private final Map<Integer, Notification> pending = new LinkedHashMap<>();
+    private double tokens;
+    private long lastRefill;
+    private boolean drainScheduled;
+
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (NotificationPoster.this) {
+                drainScheduled = false;
+            }
+            drainPending();
+        }
+    };
+
+    private NotificationPoster(Context context, int postsPerSecond) {
+        this.notificationManager = NotificationManagerCompat.from(context);
+        this.maxTokens = postsPerSecond;
+        this.tokensPerMs = postsPerSecond / 1000.0;
+        this.tokens = postsPerSecond;
+        this.lastRefill = SystemClock.elapsedRealtime();
+
+        HandlerThread thread = new HandlerThread("notification-poster");
+        thread.start();
+        this.handler = new Handler(thread.getLooper());
+    }
+
+    public static NotificationPoster getInstance(Context context) {
+        if (instance == null) {
+            synchronized (NotificationPoster.class) {
+                if (instance == null) {
+                    instance = new NotificationPoster(context.getApplicationContext(), DEFAULT_POSTS_PER_SECOND);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Posts the notification right away if the rate allows and nothing is queued, else queues it in place of any
+     * queued post with the same id.
+     */
+    public void post(int id, Notification notification) {
+        synchronized (this) {
+            if (pending.isEmpty() && takeToken()) {
+                notificationManager.notify(id, notification);
+                return;
+            }
+            if (pending.put(id, notification) != null) {
+                Log.d(TAG, "Coalesced queued update for notification: " + id);
+            }
+            scheduleDrain();
+        }
+    }
+
+    /**
+     * Drops the queued post for a notification which was dismissed by the user or cancelled by the SDK. Those cancels
+     * do not go through this class, and the queued post would show the notification again.
+     */
+    public void dropPending(int id) {
+        synchronized (this) {
+            if (pending.remove(id) != null) {
+                Log.d(TAG, "Dropped queued post for closed notification: " + id);
+            }
+        }
+    }
+
+    private void drainPending() {
+        synchronized (this) {
+            Iterator<Map.Entry<Integer, Notification>> iterator = pending.entrySet().iterator();
+            while (iterator.hasNext() && takeToken()) {
+                Map.Entry<Integer, Notification> entry = iterator.next();
+                iterator.remove();
+                notificationManager.notify(entry.getKey(), entry.getValue());
+            }
+            if (!pending.isEmpty()) {
+                Log.d(TAG, pending.size() + " notifications waiting for rate limit");
+                scheduleDrain();
+            }
+        }
+    }
+
+    private void scheduleDrain() {
+        if (drainScheduled) {
+            return;
+        }
+        drainScheduled = true;
+        long delay = (long) Math.ceil(Math.max(1 - tokens, 0) / tokensPerMs);
+        handler.postDelayed(drain, delay);
+    }
+
+    private boolean takeToken() {
+        long now = SystemClock.elapsedRealtime();
+        tokens = Math.min(maxTokens, tokens + (now - lastRefill) * tokensPerMs);
+        lastRefill = now;
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+}
@@ -0,0 +1,139 @@
+package com.webengage.android.pushlayouts;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.util.Log;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the bitmaps of a notification within the memory the system accepts for its views. Since Android 9 the
+ * notification manager drops custom views whose bitmaps take more than config_notificationStripRemoteViewSizeBytes,
+ * 5 MB by default, and logs a warning above config_notificationWarnRemoteViewSizeBytes, 2 MB by default. Large bitmaps
+ * are parceled as ashmem blobs there, so the 1 MiB binder buffer is not what limits them.
+ *
+ * Older releases may send the bitmaps of RemoteViews inline in the binder transaction, which fails with
+ * TransactionTooLargeException above the 1 MiB buffer shared by all the transactions of the process. The budget is
+ * chosen by release for that reason.
+ *
+ * Images are cropped to their slot when decoded, so the images of a normal notification fit without any change. Only
+ * notifications over the budget, like a flipper carousel with many frames, have their images degraded step by step,
+ * first to RGB_565 and then to smaller sizes, until they fit.
+ */
+public class PayloadBudget {
+    private static final String TAG = PayloadBudget.class.getSimpleName();
+
+    // Below the 5 MB at which the system strips the views, with room for the bitmaps of the layout itself. Three
+    // portrait frames cropped to their 192dp slots take 2 MB in RGB_565 on an xxhdpi screen and 3.5 MB on xxxhdpi
+    public static final int DEFAULT_BUDGET_BYTES = 4 * 1000 * 1000;
+
+    // Below the 1 MiB binder buffer, with room for the rest of the notification and other transactions in flight
+    public static final int LEGACY_BUDGET_BYTES = 768 * 1024;
+
+    // Rough size of everything except the images: text, pending intents and the RemoteViews actions
+    private static final int BASE_OVERHEAD_BYTES = 16 * 1024;
+
+    private static final float[] LEVEL_SCALES = {1f, 1f, 0.75f, 0.5f, 0.35f, 0.25f};
+    private static final boolean[] LEVEL_RGB_565 = {false, true, true, true, true, true};
+
+    private static volatile int budgetBytes = Build.VERSION.SDK_INT >= Build.VERSION_CODES.P
+            ? DEFAULT_BUDGET_BYTES : LEGACY_BUDGET_BYTES;
+
+    public static void setBudgetBytes(int bytes) {
+        budgetBytes = bytes;
+    }
+
+    /**
+     * @return estimated bitmap memory of a notification carrying the given images, as counted by the system
+     */
+    public static long estimate(Bitmap... bitmaps) {
+        return estimate(bitmaps, 0);
+    }
+
+    private static long estimate(Bitmap[] bitmaps, int level) {
+        // RemoteViews parcels a bitmap used in several places only once
+        Map<Bitmap, Boolean> counted = new IdentityHashMap<>();
+        long size = BASE_OVERHEAD_BYTES;
+        for (Bitmap bitmap : bitmaps) {
+            if (bitmap == null || counted.put(bitmap, Boolean.TRUE) != null) {
+                continue;
+            }
+            size += degradedByteCount(bitmap, level);
+        }
+        return size;
+    }
+
+    private static long degradedByteCount(Bitmap bitmap, int level) {
+        long width = Math.max(1, Math.round(bitmap.getWidth() * LEVEL_SCALES[level]));
+        long height = Math.max(1, Math.round(bitmap.getHeight() * LEVEL_SCALES[level]));
+        int bytesPerPixel = useRgb565(bitmap, level) || bitmap.getConfig() == Bitmap.Config.RGB_565 ? 2 : 4;
+        return width * height * bytesPerPixel;
+    }
+
+    private static boolean useRgb565(Bitmap bitmap, int level) {
+        // Images with transparency keep their alpha channel
+        return LEVEL_RGB_565[level] && !bitmap.hasAlpha();
+    }
+
+    /**
+     * Degrades the given images just enough for the notification to fit in the budget. The given bitmaps are never
+     * modified, degraded images are new bitmaps.
+     *
+     * @param label name of the notification used in logs
+     * @return images to set in the notification, in the same order as given
+     */
+    public static Bitmap[] fit(String label, Bitmap... bitmaps) {
+        int budget = budgetBytes;
+        int level = 0;
+        while (level < LEVEL_SCALES.length - 1 && estimate(bitmaps, level) > budget) {
+            level++;
+        }
+
+        long estimate = estimate(bitmaps, level);
+        if (estimate > budget) {
+            Log.w(TAG, label + ": estimated payload " + estimate + " bytes is over budget " + budget + " bytes even at lowest quality");
+        }
+        if (level == 0) {
+            return bitmaps;
+        }
+        Log.d(TAG, label + ": degraded images to level " + level + " (scale " + LEVEL_SCALES[level]
+                + ", RGB_565 " + LEVEL_RGB_565[level] + "), estimated payload " + estimate + " bytes");
+
+        Map<Bitmap, Bitmap> degraded = new IdentityHashMap<>();
+        Bitmap[] result = new Bitmap[bitmaps.length];
+        for (int i = 0; i < bitmaps.length; i++) {
+            Bitmap bitmap = bitmaps[i];
+            if (bitmap == null) {
+                continue;
+            }
+            Bitmap degradedBitmap = degraded.get(bitmap);
+            if (degradedBitmap == null) {
+                degradedBitmap = degrade(bitmap, level);
+                degraded.put(bitmap, degradedBitmap);
+            }
+            result[i] = degradedBitmap;
+        }
+        return result;
+    }
+
+    private static Bitmap degrade(Bitmap bitmap, int level) {
+        Bitmap result = bitmap;
+        float scale = LEVEL_SCALES[level];
+        if (scale < 1f) {
+            int width = Math.max(1, Math.round(bitmap.getWidth() * scale));
+            int height = Math.max(1, Math.round(bitmap.getHeight() * scale));
+            result = Bitmap.createScaledBitmap(bitmap, width, height, true);
+        }
+        if (useRgb565(bitmap, level) && result.getConfig() != Bitmap.Config.RGB_565) {
+            Bitmap converted = result.copy(Bitmap.Config.RGB_565, false);
+            if (converted != null) {
+                if (result != bitmap) {
+                    result.recycle();
+                }
+                result = converted;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,273 @@
+package com.webengage.android.pushlayouts;
+
+import android.annotation.TargetApi;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.service.notification.StatusBarNotification;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Disk store of decoded and scaled images saved as raw pixels. Images are read back through a memory mapped file
+ * straight into a bitmap, so images rendered before the process died do not have to be decoded again.
+ */
+public class PixelDiskStore {
+    private static final String TAG = PixelDiskStore.class.getSimpleName();
+
+    private static final int MAGIC = 0x57455058;  // "WEPX"
+    private static final int HEADER_SIZE = 4 * 4;  // magic, width, height, config
+    private static final Bitmap.Config[] CONFIGS = {Bitmap.Config.ARGB_8888, Bitmap.Config.RGB_565};
+    private static final String TMP_SUFFIX = ".tmp";
+
+    // Entries touched this recently are kept even if no notification is showing, as their render may be in progress
+    private static final long INACTIVE_GRACE_PERIOD = 5 * 60 * 1000;
+
+    private static volatile PixelDiskStore installed;
+
+    private final File directory;
+    private final long maxSize;
+    private long size;
+
+    private PixelDiskStore(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    public static PixelDiskStore install(File directory, long maxSize) {
+        PixelDiskStore store = new PixelDiskStore(directory, maxSize);
+        store.init();
+        installed = store;
+        return store;
+    }
+
+    public static PixelDiskStore getInstalled() {
+        return installed;
+    }
+
+    private synchronized void init() {
+        if (!directory.exists() && !directory.mkdirs()) {
+            Log.e(TAG, "Could not create pixel store directory: " + directory);
+        }
+        size = 0;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (isWriteInProgress(file)) {
+                    file.delete();
+                } else {
+                    size += file.length();
+                }
+            }
+        }
+        trimToSize(maxSize);
+    }
+
+    /**
+     * @return stored image for the key, or null if it is not in store
+     */
+    public Bitmap get(String key) {
+        File file = getFile(key);
+        if (!file.exists()) {
+            return null;
+        }
+
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(file, "r");
+            FileChannel channel = randomAccessFile.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+                throw new IOException("Invalid header");
+            }
+            int width = buffer.getInt();
+            int height = buffer.getInt();
+            int config = buffer.getInt();
+            if (width <= 0 || height <= 0 || config < 0 || config >= CONFIGS.length) {
+                throw new IOException("Invalid header");
+            }
+
+            Bitmap bitmap = BitmapPool.getInstance().getReconfigured(width, height, CONFIGS[config]);
+            if (bitmap == null) {
+                bitmap = Bitmap.createBitmap(width, height, CONFIGS[config]);
+            }
+            if (buffer.remaining() < bitmap.getByteCount()) {
+                throw new IOException("Truncated pixels");
+            }
+            bitmap.copyPixelsFromBuffer(buffer.slice());
+            file.setLastModified(System.currentTimeMillis());
+            Log.d(TAG, "Loaded pixels from disk: " + key);
+            return bitmap;
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Exception while reading pixels for: " + key, e);
+            remove(key);
+            return null;
+        } finally {
+            closeQuietly(randomAccessFile);
+        }
+    }
+
+    public void put(String key, Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        int config = Arrays.asList(CONFIGS).indexOf(bitmap.getConfig());
+        if (config < 0) {
+            return;
+        }
+
+        File file = getFile(key);
+        File tmpFile = new File(directory, file.getName() + TMP_SUFFIX);
+        long length = HEADER_SIZE + bitmap.getByteCount();
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(tmpFile, "rw");
+            randomAccessFile.setLength(length);
+            MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+            buffer.putInt(MAGIC);
+            buffer.putInt(bitmap.getWidth());
+            buffer.putInt(bitmap.getHeight());
+            buffer.putInt(config);
+            ByteBuffer pixels = buffer.slice();
+            bitmap.copyPixelsToBuffer(pixels);
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Exception while writing pixels for: " + key, e);
+            tmpFile.delete();
+            return;
+        } finally {
+            closeQuietly(randomAccessFile);
+        }
+
+        synchronized (this) {
+            long oldLength = file.length();
+            if (tmpFile.renameTo(file)) {
+                size += length - oldLength;
+            } else {
+                tmpFile.delete();
+            }
+            trimToSize(maxSize);
+        }
+    }
+
+    public synchronized void remove(String key) {
+        File file = getFile(key);
+        long length = file.length();
+        if (file.delete()) {
+            size -= length;
+        }
+    }
+
+    /**
+     * Deletes least recently used entries until the store is within the given size.
+     */
+    public synchronized void trimToSize(long maxSize) {
+        if (size <= maxSize) {
+            return;
+        }
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        sortByLastModified(files);
+        int evicted = 0;
+        for (File file : files) {
+            if (size <= maxSize) {
+                break;
+            }
+            if (isWriteInProgress(file)) {
+                continue;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                size -= length;
+                evicted++;
+            }
+        }
+        RenderMetrics.add(RenderMetrics.PIXEL_STORE_EVICTIONS, evicted);
+        Log.d(TAG, "Trimmed pixel store to " + size + " bytes");
+    }
+
+    /**
+     * Deletes entries which were last used before the oldest notification currently showing was posted. Such images
+     * can not belong to any notification which may still be rerendered.
+     */
+    @TargetApi(Build.VERSION_CODES.M)
+    public synchronized void evictInactive(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return;
+        }
+        NotificationManager notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        if (notificationManager == null) {
+            return;
+        }
+
+        long oldestPostTime = System.currentTimeMillis();
+        for (StatusBarNotification statusBarNotification : notificationManager.getActiveNotifications()) {
+            oldestPostTime = Math.min(oldestPostTime, statusBarNotification.getPostTime());
+        }
+        long threshold = oldestPostTime - INACTIVE_GRACE_PERIOD;
+
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        int evicted = 0;
+        for (File file : files) {
+            if (isWriteInProgress(file)) {
+                continue;
+            }
+            long length = file.length();
+            if (file.lastModified() < threshold && file.delete()) {
+                size -= length;
+                evicted++;
+            }
+        }
+        RenderMetrics.add(RenderMetrics.PIXEL_STORE_EVICTIONS, evicted);
+        Log.d(TAG, "Evicted inactive pixels, store size: " + size + " bytes");
+    }
+
+    /**
+     * @return true for the temporary file of a write, which is not counted in the size and is renamed once complete
+     */
+    private static boolean isWriteInProgress(File file) {
+        return file.getName().endsWith(TMP_SUFFIX);
+    }
+
+    public synchronized long size() {
+        return size;
+    }
+
+    private File getFile(String key) {
+        return new File(directory, ImageDiskCache.hash(key));
+    }
+
+    private static void sortByLastModified(File[] files) {
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                long m1 = f1.lastModified();
+                long m2 = f2.lastModified();
+                return m1 < m2 ? -1 : (m1 == m2 ? 0 : 1);
+            }
+        });
+    }
+
+    private static void closeQuietly(RandomAccessFile randomAccessFile) {
+        if (randomAccessFile != null) {
+            try {
+                randomAccessFile.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
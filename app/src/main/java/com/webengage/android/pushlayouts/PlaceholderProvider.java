@@ -0,0 +1,80 @@
+package com.webengage.android.pushlayouts;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.support.annotation.DrawableRes;
+import android.util.Log;
+
+import com.webengage.sdk.android.utils.WebEngageConstant;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Provides the placeholder images shown when an image could not be loaded. Each placeholder is decoded once per target
+ * size and kept until memory runs low.
+ */
+public class PlaceholderProvider {
+    private static final String TAG = PlaceholderProvider.class.getSimpleName();
+
+    private static final Map<WebEngageConstant.STYLE, Integer> PLACEHOLDERS = new ConcurrentHashMap<>();
+    private static final Map<String, Bitmap> BITMAPS = new ConcurrentHashMap<>();
+
+    static {
+        PLACEHOLDERS.put(WebEngageConstant.STYLE.CAROUSEL_V1, R.drawable.banner_android);
+    }
+
+    /**
+     * Sets the placeholder image for a style. Styles without a placeholder fall back to their own default behaviour,
+     * like hiding the image view.
+     */
+    public static void setPlaceholder(WebEngageConstant.STYLE style, @DrawableRes int resId) {
+        PLACEHOLDERS.put(style, resId);
+    }
+
+    public static void removePlaceholder(WebEngageConstant.STYLE style) {
+        PLACEHOLDERS.remove(style);
+    }
+
+    /**
+     * Drops the decoded placeholders, they are decoded again on next use. Placeholders may still be shown, so they are
+     * left to the garbage collector instead of being recycled.
+     */
+    public static void clear() {
+        BITMAPS.clear();
+    }
+
+    /**
+     * @return placeholder for the style decoded for the given target size, or null if the style has no placeholder
+     */
+    public static Bitmap getPlaceholder(Context context, WebEngageConstant.STYLE style, int width, int height) {
+        Integer resId = PLACEHOLDERS.get(style);
+        if (resId == null) {
+            return null;
+        }
+
+        String key = resId + "@" + width + "x" + height;
+        Bitmap placeholder = BITMAPS.get(key);
+        if (placeholder == null) {
+            placeholder = decodeResource(context.getResources(), resId, width, height);
+            if (placeholder != null) {
+                BITMAPS.put(key, placeholder);
+                Log.d(TAG, "Decoded placeholder for " + style + ": " + key);
+            }
+        }
+        return placeholder;
+    }
+
+    private static Bitmap decodeResource(Resources resources, int resId, int width, int height) {
+        BitmapFactory.Options bmOptions = new BitmapFactory.Options();
+        bmOptions.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(resources, resId, bmOptions);
+
+        bmOptions.inSampleSize = DownloadManager.calculateInSampleSize(bmOptions.outWidth, bmOptions.outHeight, width, height);
+        bmOptions.inJustDecodeBounds = false;
+        Bitmap bitmap = BitmapFactory.decodeResource(resources, resId, bmOptions);
+        return DownloadManager.scaleToCover(bitmap, width, height);
+    }
+}
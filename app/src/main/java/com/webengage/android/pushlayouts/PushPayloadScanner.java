@@ -0,0 +1,113 @@
+package com.webengage.android.pushlayouts;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds image urls and the variation id in a raw FCM data payload, so that work can start while the WebEngage SDK is
+ * still processing the message.
+ */
+public class PushPayloadScanner {
+    // The SDK passes the campaign as JSON in this key, with the variation id as its identifier
+    private static final String MESSAGE_DATA_KEY = "message_data";
+    private static final String VARIATION_ID_KEY = "identifier";
+
+    private static final String[] IMAGE_KEY_HINTS = {"image", "img", "icon", "banner"};
+    private static final String[] IMAGE_EXTENSIONS = {".jpg", ".jpeg", ".png", ".webp", ".gif"};
+
+    /**
+     * @return image urls found in the payload, in the order they appear
+     */
+    public static List<String> findImageUrls(Map<String, String> data) {
+        Set<String> urls = new LinkedHashSet<>();
+        for (Map.Entry<String, String> entry : data.entrySet()) {
+            scanValue(entry.getKey(), entry.getValue(), urls);
+        }
+        return new ArrayList<>(urls);
+    }
+
+    /**
+     * @return variation id of the push, the same as {@code PushNotificationData.getVariationId()}, or null if the
+     * payload does not have one
+     */
+    public static String findVariationId(Map<String, String> data) {
+        String messageData = data.get(MESSAGE_DATA_KEY);
+        if (messageData == null) {
+            return null;
+        }
+        try {
+            String variationId = new JSONObject(messageData).optString(VARIATION_ID_KEY, null);
+            return variationId != null && !variationId.isEmpty() ? variationId : null;
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    private static void scanValue(String key, String value, Set<String> urls) {
+        if (value == null || !value.contains("http")) {
+            return;
+        }
+        String trimmed = value.trim();
+        if (trimmed.startsWith("{") || trimmed.startsWith("[")) {
+            try {
+                scanJson(key, new JSONTokener(trimmed).nextValue(), urls);
+            } catch (JSONException e) {
+                // Not JSON after all, nothing to scan
+            }
+        } else if (isImageUrl(key, trimmed)) {
+            urls.add(trimmed);
+        }
+    }
+
+    private static void scanJson(String key, Object json, Set<String> urls) throws JSONException {
+        if (json instanceof JSONObject) {
+            JSONObject jsonObject = (JSONObject) json;
+            Iterator<String> keys = jsonObject.keys();
+            while (keys.hasNext()) {
+                String childKey = keys.next();
+                scanJson(childKey, jsonObject.get(childKey), urls);
+            }
+        } else if (json instanceof JSONArray) {
+            JSONArray jsonArray = (JSONArray) json;
+            for (int i = 0; i < jsonArray.length(); i++) {
+                scanJson(key, jsonArray.get(i), urls);
+            }
+        } else if (json instanceof String) {
+            scanValue(key, (String) json, urls);
+        }
+    }
+
+    /**
+     * Urls are treated as images when their key or their path says so, which keeps deeplinks and tracking links out.
+     */
+    private static boolean isImageUrl(String key, String value) {
+        String lowerValue = value.toLowerCase(Locale.US);
+        if (!lowerValue.startsWith("http://") && !lowerValue.startsWith("https://")) {
+            return false;
+        }
+        String lowerKey = key != null ? key.toLowerCase(Locale.US) : "";
+        for (String hint : IMAGE_KEY_HINTS) {
+            if (lowerKey.contains(hint)) {
+                return true;
+            }
+        }
+        int queryStart = lowerValue.indexOf('?');
+        String path = queryStart >= 0 ? lowerValue.substring(0, queryStart) : lowerValue;
+        for (String extension : IMAGE_EXTENSIONS) {
+            if (path.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
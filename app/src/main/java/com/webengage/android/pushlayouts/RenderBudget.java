@@ -0,0 +1,95 @@
+package com.webengage.android.pushlayouts;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.webengage.sdk.android.utils.WebEngageConstant;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Time budget for loading the images of one render. The budget is split across the image fetches of the render, and
+ * fetches which do not finish within their share are abandoned in favour of placeholders.
+ */
+public class RenderBudget {
+    private static final String TAG = RenderBudget.class.getSimpleName();
+
+    public static final long DEFAULT_BUDGET_MS = 8 * 1000;
+
+    private static final Map<WebEngageConstant.STYLE, Long> BUDGETS = new ConcurrentHashMap<>();
+    private static volatile BudgetListener listener = new BudgetListener() {
+        @Override
+        public void onBudgetExhausted(WebEngageConstant.STYLE style, String url, long budgetMs) {
+            Log.w(TAG, "Render budget of " + budgetMs + " ms exhausted for " + style + " while loading: " + url);
+        }
+    };
+
+    private final WebEngageConstant.STYLE style;
+    private final long budgetMs;
+    private final long deadline;
+    private int fetchesLeft;
+
+    public interface BudgetListener {
+        void onBudgetExhausted(WebEngageConstant.STYLE style, String url, long budgetMs);
+    }
+
+    private RenderBudget(WebEngageConstant.STYLE style, long budgetMs, int fetchCount) {
+        this.style = style;
+        this.budgetMs = budgetMs;
+        this.deadline = SystemClock.elapsedRealtime() + budgetMs;
+        this.fetchesLeft = Math.max(fetchCount, 1);
+    }
+
+    /**
+     * Starts the budget for a render of the given style.
+     *
+     * @param fetchCount number of image fetches the budget is split across
+     */
+    public static RenderBudget start(WebEngageConstant.STYLE style, int fetchCount) {
+        Long budgetMs = BUDGETS.get(style);
+        return new RenderBudget(style, budgetMs != null ? budgetMs : DEFAULT_BUDGET_MS, fetchCount);
+    }
+
+    public static void setBudget(WebEngageConstant.STYLE style, long budgetMs) {
+        BUDGETS.put(style, budgetMs);
+    }
+
+    public static void setListener(BudgetListener budgetListener) {
+        listener = budgetListener;
+    }
+
+    public WebEngageConstant.STYLE getStyle() {
+        return style;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    public long remaining() {
+        return Math.max(deadline - SystemClock.elapsedRealtime(), 0);
+    }
+
+    public boolean isExhausted() {
+        return remaining() == 0;
+    }
+
+    /**
+     * @return time available to the next fetch, which is an equal share of the remaining budget
+     */
+    public synchronized long nextSlice() {
+        long slice = remaining() / fetchesLeft;
+        if (fetchesLeft > 1) {
+            fetchesLeft--;
+        }
+        return slice;
+    }
+
+    public void reportExhausted(String url) {
+        BudgetListener budgetListener = listener;
+        if (budgetListener != null) {
+            budgetListener.onBudgetExhausted(style, url, budgetMs);
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package com.webengage.android.pushlayouts;
+
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histograms and counters of the renders, kept in memory since the start of the process. Latencies are
+ * recorded per style and phase, see {@link Trace}. Counters track cache hits, misses and evictions, bytes downloaded
+ * and bytes of decoded bitmaps.
+ *
+ * Nothing is sent anywhere by this class. Call {@link #export()} to pass a {@link Snapshot} to the listener set with
+ * {@link #setListener(MetricsListener)}, e.g. to forward it to analytics.
+ */
+public class RenderMetrics {
+    private static final String TAG = RenderMetrics.class.getSimpleName();
+
+    // Style of the latencies which are not recorded as part of a render, like image decodes of background preloads
+    public static final String STYLE_ANY = "ANY";
+
+    public static final String BYTES_DOWNLOADED = "bytes_downloaded";
+    public static final String BYTES_DECODED = "bytes_decoded";
+    public static final String IMAGE_CACHE_HITS = "image_cache_hits";
+    public static final String IMAGE_CACHE_MISSES = "image_cache_misses";
+    public static final String IMAGE_CACHE_EVICTIONS = "image_cache_evictions";
+    public static final String PIXEL_STORE_HITS = "pixel_store_hits";
+    public static final String PIXEL_STORE_MISSES = "pixel_store_misses";
+    public static final String PIXEL_STORE_EVICTIONS = "pixel_store_evictions";
+
+    // Upper bounds of the histogram buckets, the last bucket holds everything slower
+    private static final long[] BUCKET_BOUNDS_MS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000};
+
+    private static final ConcurrentHashMap<String, Histogram> HISTOGRAMS = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, AtomicLong> COUNTERS = new ConcurrentHashMap<>();
+    private static volatile MetricsListener listener = new MetricsListener() {
+        @Override
+        public void onSnapshot(Snapshot snapshot) {
+            Log.d(TAG, snapshot.toString());
+        }
+    };
+
+    public enum Phase {
+        INTENTS, FETCH, DECODE, VIEWS, NOTIFY, TOTAL
+    }
+
+    public interface MetricsListener {
+        void onSnapshot(Snapshot snapshot);
+    }
+
+    /**
+     * Times the phases of one render. Each call to {@link #mark(Phase)} records the time since the previous mark, so
+     * the phases of a render are marked in the order they run.
+     *
+     * Image decodes are recorded on their own with {@link #recordDecode(long)}, from whichever thread runs them, and
+     * their time is left out of the phase they ran in. That way a fetch shows only the time spent loading the images.
+     */
+    public static class Trace {
+        private final String style;
+        private final long start;
+        private long lastMark;
+        // Decode time since the last mark, to be left out of the phase being marked
+        private final AtomicLong pendingDecodeNs = new AtomicLong();
+
+        private Trace(String style) {
+            this.style = style;
+            this.start = System.nanoTime();
+            this.lastMark = start;
+        }
+
+        public void mark(Phase phase) {
+            long now = System.nanoTime();
+            // Decodes running in parallel on other threads can add up to more than the phase took
+            record(style, phase, Math.max(now - lastMark - pendingDecodeNs.getAndSet(0), 0));
+            lastMark = now;
+        }
+
+        public void recordDecode(long durationNs) {
+            record(style, Phase.DECODE, durationNs);
+            pendingDecodeNs.addAndGet(durationNs);
+        }
+
+        /**
+         * Records the total time of the render.
+         */
+        public void end() {
+            record(style, Phase.TOTAL, System.nanoTime() - start);
+        }
+
+        public String getStyle() {
+            return style;
+        }
+    }
+
+    private static class Histogram {
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS_MS.length + 1);
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong sumUs = new AtomicLong();
+        final AtomicLong maxUs = new AtomicLong();
+
+        void record(long us) {
+            long ms = us / 1000;
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS_MS.length && ms >= BUCKET_BOUNDS_MS[bucket]) {
+                bucket++;
+            }
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            sumUs.addAndGet(us);
+            long max;
+            while (us > (max = maxUs.get()) && !maxUs.compareAndSet(max, us)) {
+                // Lost the race to another record, read the max again
+            }
+        }
+
+        HistogramSnapshot snapshot() {
+            long[] counts = new long[buckets.length()];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = buckets.get(i);
+            }
+            return new HistogramSnapshot(counts, count.get(), sumUs.get(), maxUs.get());
+        }
+    }
+
+    public static class HistogramSnapshot {
+        private final long[] bucketCounts;
+        private final long count;
+        private final long sumUs;
+        private final long maxUs;
+
+        HistogramSnapshot(long[] bucketCounts, long count, long sumUs, long maxUs) {
+            this.bucketCounts = bucketCounts;
+            this.count = count;
+            this.sumUs = sumUs;
+            this.maxUs = maxUs;
+        }
+
+        /**
+         * @return upper bounds of the buckets in ms, the last bucket of {@link #getBucketCounts()} has no bound
+         */
+        public static long[] getBucketBoundsMs() {
+            return BUCKET_BOUNDS_MS.clone();
+        }
+
+        public long[] getBucketCounts() {
+            return bucketCounts.clone();
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMeanUs() {
+            return count > 0 ? sumUs / count : 0;
+        }
+
+        public long getMaxUs() {
+            return maxUs;
+        }
+
+        /**
+         * @return upper bound in ms of the bucket which holds the given percentile, or the max if it is in the last
+         * bucket
+         */
+        public long percentileMs(double percentile) {
+            long rank = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_BOUNDS_MS.length; i++) {
+                seen += bucketCounts[i];
+                if (seen >= rank) {
+                    return BUCKET_BOUNDS_MS[i];
+                }
+            }
+            return maxUs / 1000;
+        }
+
+        @Override
+        public String toString() {
+            return "{count=" + count + ", mean=" + getMeanUs() + "us, p50=" + percentileMs(50) + "ms, p95="
+                    + percentileMs(95) + "ms, max=" + maxUs + "us}";
+        }
+    }
+
+    public static class Snapshot {
+        private final long takenAt;
+        private final Map<String, HistogramSnapshot> latencies;
+        private final Map<String, Long> counters;
+
+        Snapshot(long takenAt, Map<String, HistogramSnapshot> latencies, Map<String, Long> counters) {
+            this.takenAt = takenAt;
+            this.latencies = Collections.unmodifiableMap(latencies);
+            this.counters = Collections.unmodifiableMap(counters);
+        }
+
+        public long getTakenAt() {
+            return takenAt;
+        }
+
+        /**
+         * @return latencies keyed by style and phase, see {@link #key(String, Phase)}
+         */
+        public Map<String, HistogramSnapshot> getLatencies() {
+            return latencies;
+        }
+
+        /**
+         * @return latency of the phase for the style, or null if nothing was recorded
+         */
+        public HistogramSnapshot getLatency(String style, Phase phase) {
+            return latencies.get(key(style, phase));
+        }
+
+        /**
+         * @return counters of this class along with the hits, misses and evictions of the memory caches
+         */
+        public Map<String, Long> getCounters() {
+            return counters;
+        }
+
+        public long getCounter(String name) {
+            Long value = counters.get(name);
+            return value != null ? value : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "RenderMetrics{latencies=" + latencies + ", counters=" + counters + "}";
+        }
+    }
+
+    /**
+     * Starts timing a render of the given style.
+     *
+     * @param style name of the style, with the mode for styles which have more than one layout
+     */
+    public static Trace begin(String style) {
+        return new Trace(style);
+    }
+
+    public static void record(String style, Phase phase, long durationNs) {
+        String key = key(style, phase);
+        Histogram histogram = HISTOGRAMS.get(key);
+        if (histogram == null) {
+            Histogram created = new Histogram();
+            histogram = HISTOGRAMS.putIfAbsent(key, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        histogram.record(durationNs / 1000);
+    }
+
+    public static void increment(String counter) {
+        add(counter, 1);
+    }
+
+    public static void add(String counter, long delta) {
+        AtomicLong value = COUNTERS.get(counter);
+        if (value == null) {
+            AtomicLong created = new AtomicLong();
+            value = COUNTERS.putIfAbsent(counter, created);
+            if (value == null) {
+                value = created;
+            }
+        }
+        value.addAndGet(delta);
+    }
+
+    public static String key(String style, Phase phase) {
+        return style + "." + phase.name();
+    }
+
+    public static Snapshot snapshot() {
+        Map<String, HistogramSnapshot> latencies = new TreeMap<>();
+        for (Map.Entry<String, Histogram> entry : HISTOGRAMS.entrySet()) {
+            latencies.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        Map<String, Long> counters = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : COUNTERS.entrySet()) {
+            counters.put(entry.getKey(), entry.getValue().get());
+        }
+
+        BitmapCache bitmapCache = BitmapCache.getInstance();
+        counters.put("bitmap_cache_hits", (long) bitmapCache.hitCount());
+        counters.put("bitmap_cache_misses", (long) bitmapCache.missCount());
+        counters.put("bitmap_cache_evictions", (long) bitmapCache.evictionCount());
+        BitmapPool bitmapPool = BitmapPool.getInstance();
+        counters.put("bitmap_pool_hits", (long) bitmapPool.hitCount());
+        counters.put("bitmap_pool_misses", (long) bitmapPool.missCount());
+        counters.put("html_cache_hits", (long) HtmlSpans.hitCount());
+        counters.put("html_cache_misses", (long) HtmlSpans.missCount());
+        return new Snapshot(System.currentTimeMillis(), latencies, counters);
+    }
+
+    /**
+     * Passes a snapshot of the metrics to the listener.
+     */
+    public static void export() {
+        MetricsListener metricsListener = listener;
+        if (metricsListener != null) {
+            metricsListener.onSnapshot(snapshot());
+        }
+    }
+
+    public static void setListener(MetricsListener metricsListener) {
+        listener = metricsListener;
+    }
+
+    /**
+     * Clears all histograms and counters, e.g. after an export, so the next snapshot covers only the renders since.
+     * Counters of the memory caches are kept by the caches and are not reset.
+     */
+    public static void reset() {
+        HISTOGRAMS.clear();
+        COUNTERS.clear();
+    }
+}
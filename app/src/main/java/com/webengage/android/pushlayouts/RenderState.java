@@ -0,0 +1,115 @@
+package com.webengage.android.pushlayouts;
+
+import android.app.PendingIntent;
+import android.content.Context;
+import android.widget.RemoteViews;
+
+import com.webengage.sdk.android.PendingIntentFactory;
+import com.webengage.sdk.android.actions.render.PushNotificationData;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Parts of a notification which do not change between its renders, keyed by its variation id. Rerenders reuse the
+ * collapsed view, the pending intents and the view templates from here and only build the parts which changed, like
+ * the frame shown or the selected stars.
+ *
+ * Only pending intents which stay the same for the whole life of the notification belong here. Intents which depend on
+ * the frame or rating shown are built on every render.
+ */
+public class RenderState {
+    private static final int MAX_STATES = 32;
+
+    private static final Map<String, RenderState> STATES = new LinkedHashMap<String, RenderState>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, RenderState> eldest) {
+            return size() > MAX_STATES;
+        }
+    };
+
+    private final RemoteViews collapsedView;
+    private final PendingIntent deletePendingIntent;
+    private final PendingIntent contentPendingIntent;
+    private final Map<String, PendingIntent> pendingIntents = new ConcurrentHashMap<>();
+    private final Map<String, RemoteViews> templates = new ConcurrentHashMap<>();
+
+    private RenderState(Context context, PushNotificationData pushNotificationData) {
+        // Never modified after this, so the same view can be set on every render of the notification
+        collapsedView = new RemoteViews(context.getPackageName(), R.layout.push_collapsed);
+        collapsedView.setTextViewText(R.id.notificationTitle, pushNotificationData.getTitle());
+        collapsedView.setTextViewText(R.id.notificationText, pushNotificationData.getContentText());
+
+        deletePendingIntent = PendingIntentFactory.constructPushDeletePendingIntent(context, pushNotificationData);
+        contentPendingIntent = PendingIntentFactory.constructPushClickPendingIntent(context, pushNotificationData, pushNotificationData.getPrimeCallToAction(), true);
+    }
+
+    /**
+     * Builds the state for a new notification, replacing any state left from an earlier notification with the same
+     * variation id.
+     */
+    public static RenderState create(Context context, PushNotificationData pushNotificationData) {
+        RenderState state = new RenderState(context, pushNotificationData);
+        synchronized (STATES) {
+            STATES.put(pushNotificationData.getVariationId(), state);
+        }
+        return state;
+    }
+
+    /**
+     * @return state of the notification, built again if it is not in memory, e.g. because the process was restarted
+     */
+    public static RenderState get(Context context, PushNotificationData pushNotificationData) {
+        RenderState state;
+        synchronized (STATES) {
+            state = STATES.get(pushNotificationData.getVariationId());
+        }
+        return state != null ? state : create(context, pushNotificationData);
+    }
+
+    public static void remove(String variationId) {
+        synchronized (STATES) {
+            STATES.remove(variationId);
+        }
+    }
+
+    public RemoteViews getCollapsedView() {
+        return collapsedView;
+    }
+
+    public PendingIntent getDeletePendingIntent() {
+        return deletePendingIntent;
+    }
+
+    public PendingIntent getContentPendingIntent() {
+        return contentPendingIntent;
+    }
+
+    /**
+     * @return pending intent stored under the key, or null if there is none
+     */
+    public PendingIntent getPendingIntent(String key) {
+        return pendingIntents.get(key);
+    }
+
+    public void putPendingIntent(String key, PendingIntent pendingIntent) {
+        if (key != null && pendingIntent != null) {
+            pendingIntents.put(key, pendingIntent);
+        }
+    }
+
+    /**
+     * @return view stored under the key, or null if there is none. Callers must work on a copy of the view, so that
+     * it stays the same for the next render.
+     */
+    public RemoteViews getTemplate(String key) {
+        return templates.get(key);
+    }
+
+    public void putTemplate(String key, RemoteViews template) {
+        if (key != null && template != null) {
+            templates.put(key, template);
+        }
+    }
+}
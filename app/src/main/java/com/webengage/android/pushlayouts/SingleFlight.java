@@ -0,0 +1,84 @@
+package com.webengage.android.pushlayouts;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Makes sure that only one call for a key is running at a time. Callers arriving while a call for the same key is
+ * running wait for that call and share its result instead of running their own.
+ *
+ * A running call can not be interrupted while it is blocked on a socket read, so waiters can give up after a timeout
+ * instead of staying blocked for as long as the call runs.
+ */
+public class SingleFlight<T> {
+    private final ConcurrentHashMap<String, FutureTask<T>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Runs the callable on the calling thread, or waits for the call already running for this key.
+     */
+    public T execute(String key, Callable<T> callable) throws Exception {
+        return execute(key, callable, Long.MAX_VALUE);
+    }
+
+    /**
+     * Runs the callable on the calling thread, or waits up to the timeout for the call already running for this key.
+     *
+     * @throws TimeoutException if the running call did not finish within the timeout
+     */
+    public T execute(String key, Callable<T> callable, long timeoutMs) throws Exception {
+        FutureTask<T> task = new FutureTask<>(callable);
+        FutureTask<T> running = inFlight.putIfAbsent(key, task);
+        if (running == null) {
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(key, task);
+            }
+            return getResult(task, Long.MAX_VALUE);
+        }
+        return getResult(running, timeoutMs);
+    }
+
+    /**
+     * Waits for the call running for this key, if any.
+     *
+     * @return result of the running call, or null if there is no call running for this key
+     */
+    public T await(String key) throws Exception {
+        return await(key, Long.MAX_VALUE);
+    }
+
+    /**
+     * Waits up to the timeout for the call running for this key, if any.
+     *
+     * @return result of the running call, or null if there is no call running for this key or it did not finish
+     * within the timeout
+     */
+    public T await(String key, long timeoutMs) throws Exception {
+        FutureTask<T> running = inFlight.get(key);
+        if (running == null) {
+            return null;
+        }
+        try {
+            return getResult(running, timeoutMs);
+        } catch (TimeoutException e) {
+            return null;
+        }
+    }
+
+    private T getResult(FutureTask<T> task, long timeoutMs) throws Exception {
+        try {
+            return task.get(Math.max(timeoutMs, 0), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.webengage.android.pushlayouts;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ImageDiskCacheTest {
+    private static final long MAX_SIZE = 1024 * 1024;
+    private static final long ONE_DAY = 24 * 60 * 60 * 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void entriesSurviveReopen() throws IOException {
+        File directory = folder.newFolder("images");
+        ImageDiskCache cache = ImageDiskCache.install(directory, MAX_SIZE, ONE_DAY);
+        cache.put("https://example.com/a.jpg", new byte[100]);
+        cache.put("https://example.com/b.jpg", new byte[200]);
+        cache.remove("https://example.com/a.jpg");
+
+        ImageDiskCache reopened = ImageDiskCache.install(directory, MAX_SIZE, ONE_DAY);
+        assertNull(reopened.get("https://example.com/a.jpg"));
+        File file = reopened.get("https://example.com/b.jpg");
+        assertNotNull(file);
+        assertEquals(200, file.length());
+        assertEquals(200, reopened.size());
+    }
+
+    @Test
+    public void uncommittedWritesAreDroppedOnReopen() throws IOException {
+        File directory = folder.newFolder("images");
+        ImageDiskCache cache = ImageDiskCache.install(directory, MAX_SIZE, ONE_DAY);
+        ImageDiskCache.Editor editor = cache.edit("https://example.com/a.jpg");
+        OutputStream output = editor.newOutputStream();
+        output.write(new byte[100]);
+        output.close();
+
+        ImageDiskCache reopened = ImageDiskCache.install(directory, MAX_SIZE, ONE_DAY);
+        assertNull(reopened.get("https://example.com/a.jpg"));
+        assertEquals(0, reopened.size());
+        String[] files = directory.list();
+        assertNotNull(files);
+        assertEquals(1, files.length);
+    }
+
+    @Test
+    public void truncatedJournalLineIsSkipped() throws IOException {
+        File directory = folder.newFolder("images");
+        ImageDiskCache cache = ImageDiskCache.install(directory, MAX_SIZE, ONE_DAY);
+        cache.put("https://example.com/a.jpg", new byte[100]);
+
+        // Process died while appending a line
+        OutputStream journal = new FileOutputStream(new File(directory, "journal"), true);
+        journal.write("CLEAN 0123".getBytes("UTF-8"));
+        journal.close();
+
+        ImageDiskCache reopened = ImageDiskCache.install(directory, MAX_SIZE, ONE_DAY);
+        assertNotNull(reopened.get("https://example.com/a.jpg"));
+        assertEquals(100, reopened.size());
+    }
+
+    @Test
+    public void journalIsCompactedAfterManyReads() throws IOException {
+        File directory = folder.newFolder("images");
+        ImageDiskCache cache = ImageDiskCache.install(directory, MAX_SIZE, ONE_DAY);
+        cache.put("https://example.com/a.jpg", new byte[100]);
+        for (int i = 0; i < 2500; i++) {
+            assertNotNull(cache.get("https://example.com/a.jpg"));
+        }
+
+        assertTrue(countLines(new File(directory, "journal")) < 1000);
+        ImageDiskCache reopened = ImageDiskCache.install(directory, MAX_SIZE, ONE_DAY);
+        assertNotNull(reopened.get("https://example.com/a.jpg"));
+        assertEquals(100, reopened.size());
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesAreEvicted() throws IOException {
+        File directory = folder.newFolder("images");
+        ImageDiskCache cache = ImageDiskCache.install(directory, 250, ONE_DAY);
+        cache.put("https://example.com/a.jpg", new byte[100]);
+        cache.put("https://example.com/b.jpg", new byte[100]);
+        cache.get("https://example.com/a.jpg");
+        cache.put("https://example.com/c.jpg", new byte[100]);
+
+        assertNotNull(cache.get("https://example.com/a.jpg"));
+        assertNull(cache.get("https://example.com/b.jpg"));
+        assertNotNull(cache.get("https://example.com/c.jpg"));
+        assertEquals(200, cache.size());
+    }
+
+    @Test
+    public void expiredEntriesAreNotServed() throws Exception {
+        File directory = folder.newFolder("images");
+        ImageDiskCache cache = ImageDiskCache.install(directory, MAX_SIZE, 50);
+        cache.put("https://example.com/a.jpg", new byte[100]);
+        assertNotNull(cache.get("https://example.com/a.jpg"));
+
+        Thread.sleep(100);
+        assertNull(cache.get("https://example.com/a.jpg"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void expiredEntriesAreEvictedOnReopen() throws Exception {
+        File directory = folder.newFolder("images");
+        ImageDiskCache cache = ImageDiskCache.install(directory, MAX_SIZE, ONE_DAY);
+        cache.put("https://example.com/a.jpg", new byte[100]);
+
+        Thread.sleep(100);
+        ImageDiskCache reopened = ImageDiskCache.install(directory, MAX_SIZE, 50);
+        assertEquals(0, reopened.size());
+        String[] files = directory.list();
+        assertNotNull(files);
+        assertEquals(1, files.length);
+    }
+
+    private static int countLines(File file) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            int count = 0;
+            while (reader.readLine() != null) {
+                count++;
+            }
+            return count;
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.webengage.android.pushlayouts;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SingleFlightTest {
+
+    @Test
+    public void waitersShareTheRunningCall() throws Exception {
+        final SingleFlight<String> flights = new SingleFlight<>();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread runner = startBlockedCall(flights, started, release);
+        started.await();
+
+        // Finish the call only once this thread is waiting for it
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                release.countDown();
+            }
+        }).start();
+        assertEquals("result", flights.await("key", 5000));
+        runner.join();
+    }
+
+    @Test
+    public void awaitGivesUpAfterTimeout() throws Exception {
+        final SingleFlight<String> flights = new SingleFlight<>();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread runner = startBlockedCall(flights, started, release);
+        started.await();
+
+        long start = System.currentTimeMillis();
+        assertNull(flights.await("key", 50));
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        release.countDown();
+        runner.join();
+    }
+
+    @Test
+    public void executeGivesUpAfterTimeout() throws Exception {
+        final SingleFlight<String> flights = new SingleFlight<>();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread runner = startBlockedCall(flights, started, release);
+        started.await();
+
+        boolean timedOut = false;
+        try {
+            flights.execute("key", new Callable<String>() {
+                @Override
+                public String call() {
+                    return "other";
+                }
+            }, 50);
+        } catch (TimeoutException e) {
+            timedOut = true;
+        }
+        assertTrue(timedOut);
+        release.countDown();
+        runner.join();
+    }
+
+    private static Thread startBlockedCall(final SingleFlight<String> flights, final CountDownLatch started,
+                                           final CountDownLatch release) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flights.execute("key", new Callable<String>() {
+                        @Override
+                        public String call() throws Exception {
+                            started.countDown();
+                            release.await();
+                            return "result";
+                        }
+                    });
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+}